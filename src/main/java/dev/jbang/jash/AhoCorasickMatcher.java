@@ -0,0 +1,203 @@
+/*-
+ *  § 
+ * jash
+ *    
+ * Copyright (C) 2020 OnGres, Inc.
+ *    
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * § §
+ */
+
+package dev.jbang.jash;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Matches a set of literals on the encoded bytes of a line in a single pass
+ * using an Aho-Corasick automaton.
+ * <p>
+ * The automaton is built as a full transition table over bytes, so each input
+ * byte costs a single lookup. While in the initial state and when the literals
+ * start with no more than {@value #MAX_SKIP_BYTES} different bytes the scan
+ * skips ahead with {@code ByteScanner} to the next one of them, which is where
+ * most of the time goes for the usual handful of literals.
+ * </p>
+ */
+class AhoCorasickMatcher implements LineMatcher {
+
+	private static final int ALPHABET = 256;
+	private static final int MAX_SKIP_BYTES = 4;
+
+	private final int[] transitions;
+	private final int[][] outputs;
+	private final int[] lengths;
+	private final long[] firstBytes;
+
+	AhoCorasickMatcher(String[] literals, Charset charset) {
+		final byte[][] patterns = new byte[literals.length][];
+		for (int index = 0; index < literals.length; index++) {
+			patterns[index] = literals[index].getBytes(charset);
+		}
+		this.lengths = new int[patterns.length];
+		final boolean[] starts = new boolean[ALPHABET];
+		int startCount = 0;
+		for (int index = 0; index < patterns.length; index++) {
+			lengths[index] = patterns[index].length;
+			if (!starts[patterns[index][0] & 0xFF]) {
+				starts[patterns[index][0] & 0xFF] = true;
+				startCount++;
+			}
+		}
+		if (startCount <= MAX_SKIP_BYTES) {
+			final byte[] values = new byte[startCount];
+			for (int symbol = 0, value = 0; symbol < ALPHABET; symbol++) {
+				if (starts[symbol]) {
+					values[value++] = (byte) symbol;
+				}
+			}
+			this.firstBytes = ByteScanner.patterns(values);
+		} else {
+			this.firstBytes = null;
+		}
+
+		// build the trie, a missing transition is -1
+		final List<int[]> trie = new ArrayList<>();
+		final List<int[]> matches = new ArrayList<>();
+		trie.add(newState());
+		matches.add(null);
+		for (int index = 0; index < patterns.length; index++) {
+			int state = 0;
+			for (byte value : patterns[index]) {
+				final int symbol = value & 0xFF;
+				if (trie.get(state)[symbol] < 0) {
+					trie.get(state)[symbol] = trie.size();
+					trie.add(newState());
+					matches.add(null);
+				}
+				state = trie.get(state)[symbol];
+			}
+			matches.set(state, append(matches.get(state), index));
+		}
+
+		// turn it in a full transition table following the failure links breadth
+		// first, so that the failure state of each state is complete when needed
+		final int states = trie.size();
+		final int[] failure = new int[states];
+		final int[] table = new int[states * ALPHABET];
+		final ArrayDeque<Integer> queue = new ArrayDeque<>();
+		for (int symbol = 0; symbol < ALPHABET; symbol++) {
+			final int next = trie.get(0)[symbol];
+			if (next > 0) {
+				failure[next] = 0;
+				queue.add(next);
+				table[symbol] = next;
+			}
+		}
+		while (!queue.isEmpty()) {
+			final int state = queue.poll();
+			final int[] children = trie.get(state);
+			matches.set(state, merge(matches.get(state), matches.get(failure[state])));
+			for (int symbol = 0; symbol < ALPHABET; symbol++) {
+				final int fallback = table[failure[state] * ALPHABET + symbol];
+				if (children[symbol] >= 0) {
+					failure[children[symbol]] = fallback;
+					queue.add(children[symbol]);
+					table[state * ALPHABET + symbol] = children[symbol];
+				} else {
+					table[state * ALPHABET + symbol] = fallback;
+				}
+			}
+		}
+		this.transitions = table;
+		this.outputs = matches.toArray(new int[states][]);
+	}
+
+	private static int[] newState() {
+		final int[] state = new int[ALPHABET];
+		Arrays.fill(state, -1);
+		return state;
+	}
+
+	private static int[] append(int[] ids, int id) {
+		if (ids == null) {
+			return new int[] { id };
+		}
+		final int[] result = Arrays.copyOf(ids, ids.length + 1);
+		result[ids.length] = id;
+		return result;
+	}
+
+	private static int[] merge(int[] ids, int[] inherited) {
+		if (inherited == null) {
+			return ids;
+		}
+		int[] result = ids;
+		for (int id : inherited) {
+			result = append(result, id);
+		}
+		return result;
+	}
+
+	@Override
+	public int find(ByteBuffer words, int from, int to) {
+		final byte[] bytes = words.array();
+		int state = 0;
+		for (int index = from; index < to; index++) {
+			if (state == 0 && firstBytes != null) {
+				index = ByteScanner.indexOfAny(words, index, to, firstBytes);
+				if (index < 0) {
+					return -1;
+				}
+			}
+			state = transitions[state * ALPHABET + (bytes[index] & 0xFF)];
+			if (outputs[state] != null) {
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public boolean matches(OutputLineView line) {
+		return find(line.words(), line.offset(), line.offset() + line.byteLength()) >= 0;
+	}
+
+	@Override
+	public void forEachMatch(OutputLineView line, MatchHandler handler) {
+		final ByteBuffer words = line.words();
+		final byte[] bytes = line.array();
+		final int from = line.offset();
+		final int to = from + line.byteLength();
+		int state = 0;
+		for (int index = from; index < to; index++) {
+			if (state == 0 && firstBytes != null) {
+				index = ByteScanner.indexOfAny(words, index, to, firstBytes);
+				if (index < 0) {
+					return;
+				}
+			}
+			state = transitions[state * ALPHABET + (bytes[index] & 0xFF)];
+			final int[] ids = outputs[state];
+			if (ids != null) {
+				for (int id : ids) {
+					handler.onMatch(line.fd(), line.streamOffset() + index + 1 - lengths[id] - from, id, line);
+				}
+			}
+		}
+	}
+}
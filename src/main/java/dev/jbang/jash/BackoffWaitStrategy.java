@@ -0,0 +1,52 @@
+/*-
+ *  § 
+ * jash
+ *    
+ * Copyright (C) 2020 OnGres, Inc.
+ *    
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * § §
+ */
+
+package dev.jbang.jash;
+
+import java.util.concurrent.locks.LockSupport;
+
+class BackoffWaitStrategy implements WaitStrategy {
+
+	private final long minNanos;
+	private final long maxNanos;
+
+	BackoffWaitStrategy(long minNanos, long maxNanos) {
+		if (minNanos <= 0 || maxNanos < minNanos) {
+			throw new IllegalArgumentException("Invalid backoff range [" + minNanos + ", " + maxNanos + "]ns");
+		}
+		this.minNanos = minNanos;
+		this.maxNanos = maxNanos;
+	}
+
+	@Override
+	public void idle(int attempt, long maxNanos, Blocker blocker) throws InterruptedException {
+		long nanos = attempt >= Long.numberOfLeadingZeros(minNanos) - 1 ? this.maxNanos
+				: Math.min(minNanos << attempt, this.maxNanos);
+		LockSupport.parkNanos(Math.min(nanos, maxNanos));
+		if (Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "backoff[" + minNanos + "ns, " + maxNanos + "ns]";
+	}
+}
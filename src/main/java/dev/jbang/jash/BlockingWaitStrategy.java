@@ -0,0 +1,36 @@
+/*-
+ *  § 
+ * jash
+ *    
+ * Copyright (C) 2020 OnGres, Inc.
+ *    
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * § §
+ */
+
+package dev.jbang.jash;
+
+class BlockingWaitStrategy implements WaitStrategy {
+
+	static final BlockingWaitStrategy INSTANCE = new BlockingWaitStrategy();
+
+	@Override
+	public void idle(int attempt, long maxNanos, Blocker blocker) throws InterruptedException {
+		blocker.block(maxNanos);
+	}
+
+	@Override
+	public String toString() {
+		return "blocking";
+	}
+}
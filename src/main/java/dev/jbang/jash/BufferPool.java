@@ -0,0 +1,140 @@
+/*-
+ *  § 
+ * jash
+ *    
+ * Copyright (C) 2020 OnGres, Inc.
+ *    
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * § §
+ */
+
+package dev.jbang.jash;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of byte arrays used to read and write process streams.
+ * <p>
+ * Arrays are grouped in power of two size classes from {@value #MIN_SIZE} to
+ * {@value #MAX_SIZE} bytes, bigger requests are not pooled. Released arrays
+ * first go to a small per thread cache and then to a shared tier that retains
+ * at most {@value #MAX_RETAINED_BYTES} bytes, anything above that is left to
+ * the garbage collector.
+ * </p>
+ */
+class BufferPool {
+
+	static final int MIN_SIZE = 64;
+	static final int MAX_SIZE = 64 * 1024;
+	static final long MAX_RETAINED_BYTES = 8 * 1024 * 1024;
+	static final int LOCAL_CAPACITY = 4;
+	static final int LOCAL_MAX_SIZE = 8192;
+
+	private static final int CLASSES = sizeClass(MAX_SIZE) + 1;
+
+	static final BufferPool INSTANCE = new BufferPool();
+
+	private final ArrayBlockingQueue<?>[] shared = new ArrayBlockingQueue<?>[CLASSES];
+	private final AtomicLong retained = new AtomicLong();
+	private final ThreadLocal<LocalCache> local = ThreadLocal.withInitial(LocalCache::new);
+
+	BufferPool() {
+		for (int sizeClass = 0; sizeClass < CLASSES; sizeClass++) {
+			shared[sizeClass] = new ArrayBlockingQueue<byte[]>(
+					(int) Math.min(1024, MAX_RETAINED_BYTES / classSize(sizeClass)));
+		}
+	}
+
+	/**
+	 * Get an array of at least the specified size.
+	 */
+	byte[] acquire(int size) {
+		if (size > MAX_SIZE) {
+			return new byte[size];
+		}
+		final int sizeClass = sizeClass(size);
+		byte[] buffer = local.get().poll(sizeClass);
+		if (buffer == null) {
+			buffer = shared(sizeClass).poll();
+			if (buffer != null) {
+				retained.addAndGet(-buffer.length);
+			}
+		}
+		return buffer != null ? buffer : new byte[classSize(sizeClass)];
+	}
+
+	/**
+	 * Give back an array obtained from {@link #acquire(int)}. The caller must not
+	 * use it anymore.
+	 */
+	void release(byte[] buffer) {
+		if (buffer.length < MIN_SIZE || buffer.length > MAX_SIZE
+				|| Integer.bitCount(buffer.length) != 1) {
+			return;
+		}
+		final int sizeClass = sizeClass(buffer.length);
+		if (local.get().offer(sizeClass, buffer)) {
+			return;
+		}
+		if (retained.addAndGet(buffer.length) > MAX_RETAINED_BYTES
+				|| !shared(sizeClass).offer(buffer)) {
+			retained.addAndGet(-buffer.length);
+		}
+	}
+
+	/**
+	 * Bytes retained by the shared tier.
+	 */
+	long retained() {
+		return retained.get();
+	}
+
+	@SuppressWarnings("unchecked")
+	private ArrayBlockingQueue<byte[]> shared(int sizeClass) {
+		return (ArrayBlockingQueue<byte[]>) shared[sizeClass];
+	}
+
+	private static int sizeClass(int size) {
+		if (size <= MIN_SIZE) {
+			return 0;
+		}
+		return 32 - Integer.numberOfLeadingZeros(size - 1) - Integer.numberOfTrailingZeros(MIN_SIZE);
+	}
+
+	private static int classSize(int sizeClass) {
+		return MIN_SIZE << sizeClass;
+	}
+
+	private static class LocalCache {
+		private final byte[][][] buffers = new byte[sizeClass(LOCAL_MAX_SIZE) + 1][LOCAL_CAPACITY][];
+		private final int[] counts = new int[buffers.length];
+
+		byte[] poll(int sizeClass) {
+			if (sizeClass >= buffers.length || counts[sizeClass] == 0) {
+				return null;
+			}
+			final byte[] buffer = buffers[sizeClass][--counts[sizeClass]];
+			buffers[sizeClass][counts[sizeClass]] = null;
+			return buffer;
+		}
+
+		boolean offer(int sizeClass, byte[] buffer) {
+			if (sizeClass >= buffers.length || counts[sizeClass] == LOCAL_CAPACITY) {
+				return false;
+			}
+			buffers[sizeClass][counts[sizeClass]++] = buffer;
+			return true;
+		}
+	}
+}
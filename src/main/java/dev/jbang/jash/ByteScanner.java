@@ -0,0 +1,245 @@
+/*-
+ *  § 
+ * jash
+ *    
+ * Copyright (C) 2020 OnGres, Inc.
+ *    
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * § §
+ */
+
+package dev.jbang.jash;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Delimiter search over byte arrays.
+ * <p>
+ * Ranges of at least {@value #SWAR_THRESHOLD} bytes are scanned eight bytes
+ * at a time as a {@code long} (SIMD within a register), shorter ranges and
+ * tails are scanned byte by byte. The words are read through a little endian
+ * {@code ByteBuffer} wrapping the array, callers scanning the same array more
+ * than once should create it with {@link #wrap(byte[])} and reuse it.
+ * </p>
+ */
+class ByteScanner {
+
+	static final int SWAR_THRESHOLD = 16;
+
+	private static final long ONES = 0x0101010101010101L;
+	private static final long HIGHS = 0x8080808080808080L;
+	private static final long LOWS = 0x7F7F7F7F7F7F7F7FL;
+	private static final long LF = ONES * '\n';
+	private static final long CR = ONES * '\r';
+
+	private ByteScanner() {
+	}
+
+	/**
+	 * Return a little endian view of the array to be passed to the scanning
+	 * methods.
+	 */
+	static ByteBuffer wrap(byte[] bytes) {
+		return ByteBuffer	.wrap(bytes)
+							.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Return the index of the first occurrence of the delimiter in the range or -1
+	 * if not found.
+	 */
+	static int indexOf(byte[] bytes, int from, int to, byte delimiter) {
+		return indexOf(bytes, to - from >= SWAR_THRESHOLD ? wrap(bytes) : null, from, to, delimiter);
+	}
+
+	/**
+	 * Return the index of the first occurrence of the delimiter in the range of
+	 * the wrapped array or -1 if not found.
+	 */
+	static int indexOf(ByteBuffer words, int from, int to, byte delimiter) {
+		return indexOf(words.array(), words, from, to, delimiter);
+	}
+
+	private static int indexOf(byte[] bytes, ByteBuffer words, int from, int to, byte delimiter) {
+		int index = from;
+		if (to - from >= SWAR_THRESHOLD) {
+			final long pattern = ONES * (delimiter & 0xFF);
+			for (; index <= to - Long.BYTES; index += Long.BYTES) {
+				final long mask = zeros(words.getLong(index) ^ pattern);
+				if (mask != 0) {
+					return index + (Long.numberOfTrailingZeros(mask) >>> 3);
+				}
+			}
+		}
+		for (; index < to; index++) {
+			if (bytes[index] == delimiter) {
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Return the index of the first line feed or carriage return in the range or
+	 * -1 if not found.
+	 */
+	static int indexOfLineBreak(byte[] bytes, int from, int to) {
+		return indexOfLineBreak(bytes, to - from >= SWAR_THRESHOLD ? wrap(bytes) : null, from, to);
+	}
+
+	/**
+	 * Return the index of the first line feed or carriage return in the range of
+	 * the wrapped array or -1 if not found.
+	 */
+	static int indexOfLineBreak(ByteBuffer words, int from, int to) {
+		return indexOfLineBreak(words.array(), words, from, to);
+	}
+
+	private static int indexOfLineBreak(byte[] bytes, ByteBuffer words, int from, int to) {
+		int index = from;
+		if (to - from >= SWAR_THRESHOLD) {
+			for (; index <= to - Long.BYTES; index += Long.BYTES) {
+				final long word = words.getLong(index);
+				final long mask = zeros(word ^ LF) | zeros(word ^ CR);
+				if (mask != 0) {
+					return index + (Long.numberOfTrailingZeros(mask) >>> 3);
+				}
+			}
+		}
+		for (; index < to; index++) {
+			final byte value = bytes[index];
+			if (value == '\n' || value == '\r') {
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Return the words to pass to {@link #indexOfAny(ByteBuffer, int, int, long[])}
+	 * to search for the specified bytes.
+	 */
+	static long[] patterns(byte[] values) {
+		final long[] patterns = new long[values.length];
+		for (int value = 0; value < values.length; value++) {
+			patterns[value] = ONES * (values[value] & 0xFF);
+		}
+		return patterns;
+	}
+
+	/**
+	 * Return the index of the first occurrence of any of the bytes of the
+	 * specified patterns in the range of the wrapped array or -1 if not found.
+	 * Meant for a few bytes, each one costs a comparison per word.
+	 */
+	static int indexOfAny(ByteBuffer words, int from, int to, long[] patterns) {
+		final byte[] bytes = words.array();
+		int index = from;
+		if (to - from >= SWAR_THRESHOLD) {
+			for (; index <= to - Long.BYTES; index += Long.BYTES) {
+				final long word = words.getLong(index);
+				long mask = 0;
+				for (long pattern : patterns) {
+					mask |= zeros(word ^ pattern);
+				}
+				if (mask != 0) {
+					return index + (Long.numberOfTrailingZeros(mask) >>> 3);
+				}
+			}
+		}
+		for (; index < to; index++) {
+			for (long pattern : patterns) {
+				if (bytes[index] == (byte) pattern) {
+					return index;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Return the index of the last line feed or carriage return in the range of
+	 * the wrapped array or -1 if not found.
+	 */
+	static int lastIndexOfLineBreak(ByteBuffer words, int from, int to) {
+		final byte[] bytes = words.array();
+		int index = to;
+		if (to - from >= SWAR_THRESHOLD) {
+			for (; index - Long.BYTES >= from; index -= Long.BYTES) {
+				final long word = words.getLong(index - Long.BYTES);
+				final long mask = exactZeros(word ^ LF) | exactZeros(word ^ CR);
+				if (mask != 0) {
+					return index - 1 - (Long.numberOfLeadingZeros(mask) >>> 3);
+				}
+			}
+		}
+		while (--index >= from) {
+			final byte value = bytes[index];
+			if (value == '\n' || value == '\r') {
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Return true if all the bytes in the range are ASCII.
+	 */
+	static boolean isAscii(byte[] bytes, int from, int to) {
+		return isAscii(bytes, to - from >= SWAR_THRESHOLD ? wrap(bytes) : null, from, to);
+	}
+
+	/**
+	 * Return true if all the bytes in the range of the wrapped array are ASCII.
+	 */
+	static boolean isAscii(ByteBuffer words, int from, int to) {
+		return isAscii(words.array(), words, from, to);
+	}
+
+	private static boolean isAscii(byte[] bytes, ByteBuffer words, int from, int to) {
+		int index = from;
+		if (to - from >= SWAR_THRESHOLD) {
+			long bits = 0;
+			for (; index <= to - Long.BYTES; index += Long.BYTES) {
+				bits |= words.getLong(index);
+			}
+			if ((bits & HIGHS) != 0) {
+				return false;
+			}
+		}
+		for (; index < to; index++) {
+			if (bytes[index] < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Set the high bit of the lowest zero byte of the word. Bytes above a zero
+	 * byte may also be marked because of the borrow, so only the lowest mark is
+	 * reliable.
+	 */
+	private static long zeros(long word) {
+		return (word - ONES) & ~word & HIGHS;
+	}
+
+	/**
+	 * Set the high bit of every zero byte of the word, and only of those. Slower
+	 * than {@link #zeros(long)} but needed to find the highest zero byte.
+	 */
+	private static long exactZeros(long word) {
+		return ~(((word & LOWS) + LOWS) | word | LOWS);
+	}
+}
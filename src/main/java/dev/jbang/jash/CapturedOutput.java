@@ -0,0 +1,238 @@
+/*-
+ *  § 
+ * jash
+ *    
+ * Copyright (C) 2020 OnGres, Inc.
+ *    
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * § §
+ */
+
+package dev.jbang.jash;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+/**
+ * The whole stdout of a process, held in memory up to a threshold and spilled
+ * to a temporary file once it grows past it.
+ * <p>
+ * Close it to delete the temporary file, the buffers and streams returned
+ * can not be used anymore after that.
+ * </p>
+ *
+ * @see Jash#capture()
+ */
+public class CapturedOutput implements Closeable {
+
+	static final int MIN_THRESHOLD = 64 * 1024;
+	static final int MAX_THRESHOLD = 64 * 1024 * 1024;
+	static final int HEADROOM_FRACTION = 8;
+	private static final int INITIAL_SIZE = 8192;
+
+	private final long threshold;
+	private final Charset charset;
+	private byte[] memory = new byte[0];
+	private long size = 0;
+	private Path path;
+	private FileChannel channel;
+	private boolean closed = false;
+
+	CapturedOutput(long threshold, Charset charset) {
+		this.threshold = Math.min(threshold, Integer.MAX_VALUE - 8);
+		this.charset = charset;
+	}
+
+	/**
+	 * Return the bytes to keep in memory before spilling, a fraction of the heap
+	 * that could still be allocated, between {@value #MIN_THRESHOLD} and
+	 * {@value #MAX_THRESHOLD} bytes.
+	 */
+	static long threshold() {
+		Runtime runtime = Runtime.getRuntime();
+		long headroom = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+		return Math.max(MIN_THRESHOLD, Math.min(MAX_THRESHOLD, headroom / HEADROOM_FRACTION));
+	}
+
+	void append(ByteBuffer data) throws IOException {
+		checkNotClosed();
+		if (channel == null && size + data.remaining() > threshold) {
+			spill();
+		}
+		if (channel != null) {
+			size += data.remaining();
+			while (data.hasRemaining()) {
+				channel.write(data);
+			}
+			return;
+		}
+		int length = data.remaining();
+		if (size + length > memory.length) {
+			memory = Arrays.copyOf(memory,
+					(int) Math.min(threshold, Math.max(size + length, Math.max(INITIAL_SIZE, memory.length * 2L))));
+		}
+		data.get(memory, (int) size, length);
+		size += length;
+	}
+
+	/**
+	 * Move what is held in memory to a temporary file that is appended to from
+	 * then on.
+	 */
+	private void spill() throws IOException {
+		path = Files.createTempFile("jash-", ".out");
+		try {
+			channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			ByteBuffer data = ByteBuffer.wrap(memory, 0, (int) size);
+			while (data.hasRemaining()) {
+				channel.write(data);
+			}
+		} catch (IOException | RuntimeException ex) {
+			close();
+			throw ex;
+		}
+		memory = null;
+	}
+
+	/**
+	 * Return the number of bytes captured.
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * Return {@code true} if the output grew past the threshold and was spilled
+	 * to a temporary file.
+	 */
+	public boolean isSpilled() {
+		return channel != null;
+	}
+
+	/**
+	 * Return the output as a read only buffer, the temporary file mapped in
+	 * memory if the output was spilled.
+	 *
+	 * @throws IllegalStateException if the output is bigger than
+	 *                               {@code Integer.MAX_VALUE} bytes, use
+	 *                               {@link #path()} instead
+	 */
+	public ByteBuffer buffer() {
+		checkNotClosed();
+		if (size > Integer.MAX_VALUE) {
+			throw new IllegalStateException("The output of " + size + " bytes is too big to be mapped, use path()");
+		}
+		if (channel == null) {
+			return ByteBuffer.wrap(memory, 0, (int) size).slice().asReadOnlyBuffer();
+		}
+		try {
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	/**
+	 * Return the output mapped in memory from a file, spilling it if it was held
+	 * in memory.
+	 *
+	 * @see #buffer()
+	 */
+	public MappedByteBuffer map() {
+		path();
+		return (MappedByteBuffer) buffer();
+	}
+
+	/**
+	 * Return the path of the file holding the output, spilling it if it was held
+	 * in memory. The file is deleted on close, copy or move it to keep it.
+	 */
+	public Path path() {
+		checkNotClosed();
+		if (channel == null) {
+			try {
+				spill();
+			} catch (IOException ex) {
+				throw new UncheckedIOException(ex);
+			}
+		}
+		return path;
+	}
+
+	/**
+	 * Return the output lines, decoded with the charset of the process.
+	 */
+	public Stream<String> lines() {
+		checkNotClosed();
+		if (channel == null) {
+			return new BufferedReader(new InputStreamReader(
+					new ByteArrayInputStream(memory, 0, (int) size), charset)).lines();
+		}
+		try {
+			FileChannel reader = FileChannel.open(path, StandardOpenOption.READ);
+			return new BufferedReader(Channels.newReader(reader, charset.newDecoder(), -1))
+					.lines()
+					.onClose(() -> {
+						try {
+							reader.close();
+						} catch (IOException ex) {
+							throw new UncheckedIOException(ex);
+						}
+					});
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	/**
+	 * Delete the temporary file if the output was spilled and release the
+	 * memory.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		memory = null;
+		try {
+			if (channel != null) {
+				channel.close();
+			}
+		} finally {
+			if (path != null) {
+				Files.deleteIfExists(path);
+			}
+		}
+	}
+
+	private void checkNotClosed() {
+		if (closed) {
+			throw new IllegalStateException("The captured output is closed");
+		}
+	}
+}
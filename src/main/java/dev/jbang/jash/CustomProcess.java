@@ -25,6 +25,8 @@ import java.io.OutputStream;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 abstract class CustomProcess {
 
@@ -44,8 +46,25 @@ abstract class CustomProcess {
 
 	abstract Process destroyForcibly();
 
+	/**
+	 * Return true once {@code destroyForcibly()} was called.
+	 */
+	abstract boolean isDestroyed();
+
 	abstract int waitFor() throws InterruptedException;
 
+	abstract boolean waitFor(long timeout, TimeUnit unit) throws InterruptedException;
+
 	abstract boolean isAlive();
 
+	/**
+	 * Return the native process id or -1 if not known.
+	 */
+	abstract long pid();
+
+	/**
+	 * Return a future completed once the process exited, the same one each time.
+	 */
+	abstract CompletableFuture<Void> onExit();
+
 }
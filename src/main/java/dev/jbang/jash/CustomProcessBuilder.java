@@ -39,4 +39,10 @@ abstract class CustomProcessBuilder<P extends CustomProcess> {
 
 	abstract P start() throws IOException;
 
+	/**
+	 * Return true if the specified output fd is read through a pipe, false if it
+	 * is redirected or merged into stdout by the operating system.
+	 */
+	abstract boolean isPiped(int fd);
+
 }
@@ -0,0 +1,104 @@
+/*-
+ *  § 
+ * jash
+ *    
+ * Copyright (C) 2020 OnGres, Inc.
+ *    
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * § §
+ */
+
+package dev.jbang.jash;
+
+/**
+ * How the lines of the process output are split in fields by
+ * {@link Jash#streamRows(FieldSpec)}.
+ */
+public final class FieldSpec {
+
+	enum Kind {
+		WHITESPACE, DELIMITED, CSV
+	}
+
+	private static final FieldSpec WHITESPACE = new FieldSpec(Kind.WHITESPACE, (byte) ' ');
+	private static final FieldSpec TSV = new FieldSpec(Kind.DELIMITED, (byte) '\t');
+	private static final FieldSpec CSV = new FieldSpec(Kind.CSV, (byte) ',');
+
+	final Kind kind;
+	final byte delimiter;
+
+	private FieldSpec(Kind kind, byte delimiter) {
+		this.kind = kind;
+		this.delimiter = delimiter;
+	}
+
+	/**
+	 * Fields separated by runs of spaces and tabs, ignoring leading and trailing
+	 * ones, like the output of {@code ps} or {@code df}.
+	 */
+	public static FieldSpec whitespace() {
+		return WHITESPACE;
+	}
+
+	/**
+	 * Fields separated by a single tab, with no quoting.
+	 */
+	public static FieldSpec tsv() {
+		return TSV;
+	}
+
+	/**
+	 * Fields separated by a single occurrence of the specified character, with no
+	 * quoting, like the output of {@code psql -A -F}.
+	 */
+	public static FieldSpec delimited(char delimiter) {
+		return new FieldSpec(Kind.DELIMITED, ascii(delimiter));
+	}
+
+	/**
+	 * Comma separated values as described in RFC 4180.
+	 */
+	public static FieldSpec csv() {
+		return CSV;
+	}
+
+	/**
+	 * Values separated by the specified character and quoted as described in RFC
+	 * 4180.
+	 */
+	public static FieldSpec csv(char delimiter) {
+		if (delimiter == OutputRow.QUOTE) {
+			throw new IllegalArgumentException("The delimiter can not be the quote character");
+		}
+		return new FieldSpec(Kind.CSV, ascii(delimiter));
+	}
+
+	private static byte ascii(char delimiter) {
+		if (delimiter >= 0x80 || delimiter == '\n' || delimiter == '\r') {
+			throw new IllegalArgumentException("Invalid delimiter " + (int) delimiter);
+		}
+		return (byte) delimiter;
+	}
+
+	@Override
+	public String toString() {
+		switch (kind) {
+		case WHITESPACE:
+			return "whitespace";
+		case DELIMITED:
+			return "delimited[" + (char) delimiter + "]";
+		default:
+			return "csv[" + (char) delimiter + "]";
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/*-
+ *  § 
+ * jash
+ *    
+ * Copyright (C) 2020 OnGres, Inc.
+ *    
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * § §
+ */
+
+package dev.jbang.jash;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * What {@link Jash#grep(GrepPattern)} looks for in the lines of the process
+ * output.
+ * <p>
+ * Literals are matched on the raw output bytes, so lines that do not match are
+ * never decoded. Regular expressions are matched on a reused view of the line
+ * that decodes it only if it is not plain ASCII.
+ * </p>
+ */
+public final class GrepPattern {
+
+	private final Function<Charset, LineMatcher> matcherFactory;
+	private final String description;
+
+	private GrepPattern(Function<Charset, LineMatcher> matcherFactory, String description) {
+		this.matcherFactory = matcherFactory;
+		this.description = description;
+	}
+
+	/**
+	 * Match any of the specified literals, the id of each match is the index of
+	 * the literal that matched. More than one literal are matched in a single pass
+	 * with the Aho-Corasick algorithm.
+	 */
+	public static GrepPattern literals(String... literals) {
+		if (literals.length == 0) {
+			throw new IllegalArgumentException("At least one literal is required");
+		}
+		for (String literal : literals) {
+			if (literal.isEmpty()) {
+				throw new IllegalArgumentException("Literals can not be empty");
+			}
+			if (literal.indexOf('\n') >= 0 || literal.indexOf('\r') >= 0) {
+				throw new IllegalArgumentException("Literals can not contain line breaks");
+			}
+		}
+		final String[] copy = literals.clone();
+		return new GrepPattern(charset -> new AhoCorasickMatcher(copy, charset),
+				"literals" + Arrays.toString(copy));
+	}
+
+	/**
+	 * Match the specified regular expression, the id of each match is 0.
+	 */
+	public static GrepPattern regex(Pattern pattern) {
+		return new GrepPattern(charset -> new RegexMatcher(pattern), "regex[" + pattern + "]");
+	}
+
+	/**
+	 * Match the specified regular expression, the id of each match is 0.
+	 */
+	public static GrepPattern regex(String regex) {
+		return regex(Pattern.compile(regex));
+	}
+
+	LineMatcher matcher(Charset charset) {
+		return matcherFactory.apply(charset);
+	}
+
+	@Override
+	public String toString() {
+		return description;
+	}
+}
@@ -22,14 +22,21 @@ package dev.jbang.jash;
 
 import java.io.ByteArrayInputStream;
 import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -41,10 +48,19 @@ import java.util.Spliterator;
 import java.util.Spliterators;
 import java.util.StringJoiner;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
@@ -124,17 +140,32 @@ public class Jash implements AutoCloseable {
 										.start();
 	}
 
+	private static final int STALL_SAMPLES = 4;
+	private static final int STDIN_BUFFER_SIZE = 8192;
+	private static final int TRANSFER_SIZE = 65536;
+	private static final int SIGPIPE_EXIT_CODE = 128 + 13;
+
 	private final CustomProcessBuilder<?> processBuilder;
 	private final CustomProcess process;
 	private final Instant start;
 	private final Predicate<Integer> exitCodePredicate;
 	private final Duration timeout;
+	private final Duration idleTimeout;
+	private final Duration stallTimeout;
+	private final WaitStrategy waitStrategy;
+	private final PumpExecutor pumpExecutor;
+	private final Charset charset;
 	private final boolean closeAfterLast;
 	private final Map<Integer, Integer> outputs;
 	private final ArrayList<Closeable> closeables;
-	private final Optional<Instant> end;
+	private final OutputPipes outputPipes;
+	private final long startNanos;
+	private final Watchdog.Deadline deadline;
+	private final Watchdog.Deadline idleDeadline;
+	private final Watchdog.Deadline stallDeadline;
 	private final String shell;
 	private final String shellPrefix;
+	private volatile boolean brokenPipe = false;
 
 	public Jash(JashBuilder builder,
 			CustomProcessBuilder<?> processBuilder,
@@ -145,16 +176,35 @@ public class Jash implements AutoCloseable {
 		this.start = start;
 		this.exitCodePredicate = builder.exitCodePredicate;
 		this.timeout = builder.timeout;
+		this.idleTimeout = null;
+		this.stallTimeout = null;
+		this.waitStrategy = builder.waitStrategy;
+		this.pumpExecutor = builder.pumpExecutor;
+		this.charset = builder.charset;
 		this.closeAfterLast = builder.closeAfterLast;
 		this.outputs = builder.outputs;
 		this.closeables = new ArrayList<>();
+		this.outputPipes = new OutputPipes(process, builder.multiplexOutput,
+				builder.captureOutput
+						? new OutputCapture(builder.captureHeadBytes, builder.captureTailBytes, builder.charset)
+						: null);
 		this.shell = builder.shell;
 		this.shellPrefix = builder.shellPrefix;
 		registerCloseable(process.getOutputStream());
 		registerCloseable(process.getInputStream());
 		registerCloseable(process.getErrorStream());
-		this.end = Optional	.ofNullable(start)
-							.flatMap(s -> Optional.ofNullable(timeout).map(t -> s.plus(t)));
+		registerCloseable(outputPipes);
+		if (builder.captureOutput) {
+			for (int fd : new int[] { STDOUT, STDERR }) {
+				if (processBuilder.isPiped(fd)) {
+					outputPipes.pipe(fd);
+				}
+			}
+		}
+		this.startNanos = System.nanoTime();
+		this.deadline = scheduleDeadline(start, startNanos, timeout, processBuilder.command(), process, outputPipes);
+		this.idleDeadline = null;
+		this.stallDeadline = null;
 	}
 
 	private Jash(Jash parent, Predicate<Integer> exitCodePredicate) {
@@ -163,13 +213,21 @@ public class Jash implements AutoCloseable {
 		this.start = parent.start;
 		this.exitCodePredicate = exitCodePredicate;
 		this.timeout = parent.timeout;
+		this.idleTimeout = parent.idleTimeout;
+		this.stallTimeout = parent.stallTimeout;
+		this.waitStrategy = parent.waitStrategy;
+		this.pumpExecutor = parent.pumpExecutor;
+		this.charset = parent.charset;
 		this.closeAfterLast = parent.closeAfterLast;
 		this.outputs = parent.outputs;
 		this.closeables = parent.closeables;
+		this.outputPipes = parent.outputPipes;
 		this.shell = parent.shell;
 		this.shellPrefix = parent.shellPrefix == null ? DEFAULT_SHELLPREFIX : parent.shellPrefix;
-		this.end = Optional	.ofNullable(start)
-							.flatMap(s -> Optional.ofNullable(timeout).map(t -> s.plus(t)));
+		this.startNanos = parent.startNanos;
+		this.deadline = parent.deadline;
+		this.idleDeadline = parent.idleDeadline;
+		this.stallDeadline = parent.stallDeadline;
 	}
 
 	private Jash(Jash parent, Duration timeout) {
@@ -178,13 +236,84 @@ public class Jash implements AutoCloseable {
 		this.start = parent.start;
 		this.exitCodePredicate = parent.exitCodePredicate;
 		this.timeout = timeout;
+		this.idleTimeout = parent.idleTimeout;
+		this.stallTimeout = parent.stallTimeout;
+		this.waitStrategy = parent.waitStrategy;
+		this.pumpExecutor = parent.pumpExecutor;
+		this.charset = parent.charset;
 		this.closeAfterLast = parent.closeAfterLast;
 		this.outputs = parent.outputs;
 		this.closeables = parent.closeables;
+		this.outputPipes = parent.outputPipes;
 		this.shell = parent.shell;
 		this.shellPrefix = parent.shellPrefix == null ? DEFAULT_SHELLPREFIX : parent.shellPrefix;
-		this.end = Optional	.ofNullable(start)
-							.flatMap(s -> Optional.ofNullable(timeout).map(t -> s.plus(t)));
+		if (parent.deadline != null) {
+			parent.deadline.supersede();
+		}
+		this.startNanos = parent.startNanos;
+		this.deadline = scheduleDeadline(start, startNanos, timeout, processBuilder.command(), process, outputPipes);
+		this.idleDeadline = parent.idleDeadline;
+		this.stallDeadline = parent.stallDeadline;
+	}
+
+	private Jash(Jash parent, Duration idleTimeout, Duration stallTimeout) {
+		this.processBuilder = parent.processBuilder;
+		this.process = parent.process;
+		this.start = parent.start;
+		this.exitCodePredicate = parent.exitCodePredicate;
+		this.timeout = parent.timeout;
+		this.idleTimeout = idleTimeout;
+		this.stallTimeout = stallTimeout;
+		this.waitStrategy = parent.waitStrategy;
+		this.pumpExecutor = parent.pumpExecutor;
+		this.charset = parent.charset;
+		this.closeAfterLast = parent.closeAfterLast;
+		this.outputs = parent.outputs;
+		this.closeables = parent.closeables;
+		this.outputPipes = parent.outputPipes;
+		this.shell = parent.shell;
+		this.shellPrefix = parent.shellPrefix == null ? DEFAULT_SHELLPREFIX : parent.shellPrefix;
+		this.startNanos = parent.startNanos;
+		this.deadline = parent.deadline;
+		if (idleTimeout == parent.idleTimeout) {
+			this.idleDeadline = parent.idleDeadline;
+		} else {
+			if (parent.idleDeadline != null) {
+				parent.idleDeadline.supersede();
+			}
+			this.idleDeadline = scheduleIdleDeadline(start, idleTimeout, processBuilder.command(), process, outputPipes);
+		}
+		if (stallTimeout == parent.stallTimeout) {
+			this.stallDeadline = parent.stallDeadline;
+		} else {
+			if (parent.stallDeadline != null) {
+				parent.stallDeadline.supersede();
+			}
+			this.stallDeadline = scheduleStallDeadline(start, stallTimeout, processBuilder.command(), process, outputPipes);
+		}
+	}
+
+	private Jash(Jash parent, WaitStrategy waitStrategy) {
+		this.processBuilder = parent.processBuilder;
+		this.process = parent.process;
+		this.start = parent.start;
+		this.exitCodePredicate = parent.exitCodePredicate;
+		this.timeout = parent.timeout;
+		this.idleTimeout = parent.idleTimeout;
+		this.stallTimeout = parent.stallTimeout;
+		this.waitStrategy = waitStrategy;
+		this.pumpExecutor = parent.pumpExecutor;
+		this.charset = parent.charset;
+		this.closeAfterLast = parent.closeAfterLast;
+		this.outputs = parent.outputs;
+		this.closeables = parent.closeables;
+		this.outputPipes = parent.outputPipes;
+		this.shell = parent.shell;
+		this.shellPrefix = parent.shellPrefix == null ? DEFAULT_SHELLPREFIX : parent.shellPrefix;
+		this.startNanos = parent.startNanos;
+		this.deadline = parent.deadline;
+		this.idleDeadline = parent.idleDeadline;
+		this.stallDeadline = parent.stallDeadline;
 	}
 
 	private Jash(Jash parent, boolean closeAfterLast) {
@@ -193,13 +322,21 @@ public class Jash implements AutoCloseable {
 		this.start = parent.start;
 		this.exitCodePredicate = parent.exitCodePredicate;
 		this.timeout = parent.timeout;
+		this.idleTimeout = parent.idleTimeout;
+		this.stallTimeout = parent.stallTimeout;
+		this.waitStrategy = parent.waitStrategy;
+		this.pumpExecutor = parent.pumpExecutor;
+		this.charset = parent.charset;
 		this.closeAfterLast = closeAfterLast;
 		this.outputs = parent.outputs;
 		this.closeables = parent.closeables;
+		this.outputPipes = parent.outputPipes;
 		this.shell = parent.shell;
 		this.shellPrefix = parent.shellPrefix == null ? DEFAULT_SHELLPREFIX : parent.shellPrefix;
-		this.end = Optional	.ofNullable(start)
-							.flatMap(s -> Optional.ofNullable(timeout).map(t -> s.plus(t)));
+		this.startNanos = parent.startNanos;
+		this.deadline = parent.deadline;
+		this.idleDeadline = parent.idleDeadline;
+		this.stallDeadline = parent.stallDeadline;
 	}
 
 	private Jash(Jash parent, Map<Integer, Integer> outputs) {
@@ -208,13 +345,135 @@ public class Jash implements AutoCloseable {
 		this.start = parent.start;
 		this.exitCodePredicate = parent.exitCodePredicate;
 		this.timeout = parent.timeout;
+		this.idleTimeout = parent.idleTimeout;
+		this.stallTimeout = parent.stallTimeout;
+		this.waitStrategy = parent.waitStrategy;
+		this.pumpExecutor = parent.pumpExecutor;
+		this.charset = parent.charset;
 		this.closeAfterLast = parent.closeAfterLast;
 		this.outputs = outputs;
 		this.closeables = parent.closeables;
+		this.outputPipes = parent.outputPipes;
 		this.shell = parent.shell;
 		this.shellPrefix = parent.shellPrefix == null ? DEFAULT_SHELLPREFIX : parent.shellPrefix;
-		this.end = Optional	.ofNullable(start)
-							.flatMap(s -> Optional.ofNullable(timeout).map(t -> s.plus(t)));
+		this.startNanos = parent.startNanos;
+		this.deadline = parent.deadline;
+		this.idleDeadline = parent.idleDeadline;
+		this.stallDeadline = parent.stallDeadline;
+	}
+
+	/**
+	 * Return the timeout in nanoseconds, or -1 if it is too long to ever expire
+	 * and could overflow the arithmetic on {@code System.nanoTime()} values.
+	 */
+	private static long delayNanos(Duration timeout) {
+		try {
+			final long nanos = timeout.toNanos();
+			return nanos > Watchdog.MAX_DELAY_NANOS ? -1 : nanos;
+		} catch (ArithmeticException ex) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Let the {@code Watchdog} kill the process once the timeout elapses, even if
+	 * nobody is reading its output. Once a {@code Jash} derived with another
+	 * timeout superseded the deadline, it only makes the instances sharing it fail
+	 * when they are used.
+	 */
+	private static Watchdog.Deadline scheduleDeadline(Instant start, long startNanos, Duration timeout,
+			Collection<String> command, CustomProcess process, OutputPipes outputPipes) {
+		if (start == null || timeout == null) {
+			return null;
+		}
+		final long timeoutNanos = delayNanos(timeout);
+		if (timeoutNanos < 0) {
+			return null;
+		}
+		return Watchdog.INSTANCE.schedule(startNanos + timeoutNanos, deadline -> {
+			if (process.isAlive()) {
+				expire(deadline, process, outputPipes,
+						() -> new ProcessTimeoutException(timeout, command));
+			}
+		});
+	}
+
+	/**
+	 * Let the {@code Watchdog} kill the process once no output arrived for the
+	 * idle timeout. Both pipes are drained from now on, otherwise output that
+	 * nobody is reading yet would not count.
+	 */
+	private static Watchdog.Deadline scheduleIdleDeadline(Instant start, Duration idleTimeout,
+			Collection<String> command, CustomProcess process, OutputPipes outputPipes) {
+		final long idleNanos = idleTimeout == null ? -1 : delayNanos(idleTimeout);
+		if (start == null || idleNanos < 0) {
+			return null;
+		}
+		outputPipes.pipe(STDOUT);
+		outputPipes.pipe(STDERR);
+		return Watchdog.INSTANCE.schedule(outputPipes.lastDataNanos() + idleNanos, deadline -> {
+			final long lastDataNanos = outputPipes.lastDataNanos();
+			if (System.nanoTime() - lastDataNanos < idleNanos) {
+				deadline.reschedule(lastDataNanos + idleNanos);
+			} else if (process.isAlive()) {
+				expire(deadline, process, outputPipes,
+						() -> new ProcessIdleTimeoutException(ProcessIdleTimeoutException.Condition.NO_OUTPUT,
+								idleTimeout, command));
+			}
+		});
+	}
+
+	/**
+	 * Let the {@code Watchdog} kill the process once its process tree used no CPU
+	 * for the stall timeout, sampling it a few times per period. Nothing happens
+	 * where the CPU time can not be read from {@code /proc}.
+	 */
+	private static Watchdog.Deadline scheduleStallDeadline(Instant start, Duration stallTimeout,
+			Collection<String> command, CustomProcess process, OutputPipes outputPipes) {
+		final long stallNanos = stallTimeout == null ? -1 : delayNanos(stallTimeout);
+		if (start == null || stallNanos < 0) {
+			return null;
+		}
+		final long pid = process.pid();
+		final long sampleNanos = Math.max(TimeUnit.MILLISECONDS.toNanos(10), stallNanos / STALL_SAMPLES);
+		final long[] progress = { ProcessCpuTime.ticks(pid), System.nanoTime() };
+		if (progress[0] < 0) {
+			return null;
+		}
+		return Watchdog.INSTANCE.schedule(progress[1] + sampleNanos, deadline -> {
+			final long ticks = ProcessCpuTime.ticks(pid);
+			final long now = System.nanoTime();
+			if (ticks < 0) {
+				// the process exited
+				return;
+			}
+			if (ticks != progress[0]) {
+				progress[0] = ticks;
+				progress[1] = now;
+			}
+			if (now - progress[1] < stallNanos) {
+				deadline.reschedule(Math.min(now + sampleNanos, progress[1] + stallNanos));
+			} else if (process.isAlive()) {
+				expire(deadline, process, outputPipes,
+						() -> new ProcessIdleTimeoutException(ProcessIdleTimeoutException.Condition.NO_CPU_PROGRESS,
+								stallTimeout, command));
+			}
+		});
+	}
+
+	/**
+	 * Mark the deadline as expired and kill the process, unless a {@code Jash}
+	 * derived with another deadline superseded it. The timeout is recorded so all
+	 * the {@code Jash} sharing the process report it.
+	 */
+	private static void expire(Watchdog.Deadline deadline, CustomProcess process, OutputPipes outputPipes,
+			Supplier<ProcessTimeoutException> timeoutException) {
+		deadline.expire();
+		if (!deadline.isSuperseded()) {
+			outputPipes.killedOnTimeout(timeoutException);
+			process.destroyForcibly();
+		}
+		outputPipes.wakeUp();
 	}
 
 	public static Jash $(String cmd) {
@@ -297,19 +556,70 @@ public class Jash implements AutoCloseable {
 	}
 
 	/**
-	 * Return a {@code Jash} that does not have a timeout.
+	 * Return a {@code Jash} that does not have a timeout, the timeout of this
+	 * {@code Jash} no longer kills the process but still applies when this
+	 * {@code Jash} is used.
 	 */
 	public Jash withoutTimeout() {
 		return new Jash(this, (Duration) null);
 	}
 
 	/**
-	 * Return a {@code Jash} that fails alter specified timeout.
+	 * Return a {@code Jash} that fails alter specified timeout, counted from the
+	 * start of the process. It replaces the timeout of this {@code Jash} for the
+	 * returned one only.
+	 * <p>
+	 * Once the timeout elapses the process is killed even if nobody is reading its
+	 * output, reading it then throws a {@code ProcessTimeoutException}. The timeout
+	 * of this {@code Jash} no longer kills the process, but once it elapsed using
+	 * this {@code Jash} throws a {@code ProcessTimeoutException}. The process being
+	 * shared, using this {@code Jash} also throws it once the returned one killed
+	 * the process.
+	 * </p>
 	 */
 	public Jash withTimeout(Duration timeout) {
 		return new Jash(this, timeout);
 	}
 
+	/**
+	 * Return a {@code Jash} that fails when no output arrives on any fd for the
+	 * specified time, unlike {@link #withTimeout(Duration)} a process that keeps
+	 * writing may run forever. It replaces the idle timeout of this {@code Jash}
+	 * for the returned one only, as {@link #withTimeout(Duration)} does.
+	 * <p>
+	 * Once the idle timeout elapses the process is killed even if nobody is
+	 * reading its output, reading it then throws a
+	 * {@code ProcessIdleTimeoutException}.
+	 * </p>
+	 */
+	public Jash withIdleTimeout(Duration idleTimeout) {
+		return new Jash(this, idleTimeout, stallTimeout);
+	}
+
+	/**
+	 * Return a {@code Jash} that fails when the process and its descendants use no
+	 * CPU for the specified time. It replaces the stall timeout of this
+	 * {@code Jash} for the returned one only, as {@link #withTimeout(Duration)}
+	 * does.
+	 * <p>
+	 * The CPU time is sampled from {@code /proc}, so it has no effect on systems
+	 * other than Linux. Once the stall timeout elapses the process is killed even
+	 * if nobody is reading its output, reading it then throws a
+	 * {@code ProcessIdleTimeoutException}.
+	 * </p>
+	 */
+	public Jash withStallTimeout(Duration stallTimeout) {
+		return new Jash(this, idleTimeout, stallTimeout);
+	}
+
+	/**
+	 * Return a {@code Jash} that uses the specified strategy to wait for the
+	 * process output.
+	 */
+	public Jash withWaitStrategy(WaitStrategy waitStrategy) {
+		return new Jash(this, waitStrategy);
+	}
+
 	/**
 	 * Return a {@code Jash} that throw exception only when closed.
 	 * <p>
@@ -342,6 +652,11 @@ public class Jash implements AutoCloseable {
 
 	/**
 	 * Redirect stderr to stdout.
+	 * <p>
+	 * Both pipes are still read, lines keep the order they were read in. Use
+	 * {@code JashBuilder.redirectStderrToStdout()} for the operating system to
+	 * merge them in the order they were written.
+	 * </p>
 	 */
 	public Jash withStderrToStdout() {
 		Map<Integer, Integer> outputs = new HashMap<>(this.outputs);
@@ -351,6 +666,10 @@ public class Jash implements AutoCloseable {
 
 	/**
 	 * Do not output stdout.
+	 * <p>
+	 * It is still drained and dropped, use {@code JashBuilder.noStdout()} for the
+	 * operating system to discard it.
+	 * </p>
 	 */
 	public Jash withoutStdout() {
 		Map<Integer, Integer> outputs = new HashMap<>(this.outputs);
@@ -360,6 +679,10 @@ public class Jash implements AutoCloseable {
 
 	/**
 	 * Do not output stderr.
+	 * <p>
+	 * It is still drained and dropped, use {@code JashBuilder.noStderr()} for the
+	 * operating system to discard it.
+	 * </p>
 	 */
 	public Jash withoutStderr() {
 		Map<Integer, Integer> outputs = new HashMap<>(this.outputs);
@@ -372,7 +695,7 @@ public class Jash implements AutoCloseable {
 	 * fails.
 	 */
 	public Stream<String> stream() {
-		return streamOutputLines().map(OutputLine::line);
+		return streamLines().map(OutputLine::line);
 	}
 
 	/**
@@ -380,7 +703,7 @@ public class Jash implements AutoCloseable {
 	 * fails.
 	 */
 	public Stream<String> streamStdout() {
-		return streamOutputLines().filter(OutputLine::isStdout).map(OutputLine::line);
+		return streamLines().filter(OutputLine::isStdout).map(OutputLine::line);
 	}
 
 	/**
@@ -388,23 +711,32 @@ public class Jash implements AutoCloseable {
 	 * fails.
 	 */
 	public Stream<String> streamStderr() {
-		return streamOutputLines().filter(OutputLine::isStderr).map(OutputLine::line);
+		return streamLines().filter(OutputLine::isStderr).map(OutputLine::line);
 	}
 
 	/**
 	 * Stream process output line by line and throws an Exception if the process
 	 * fails.
+	 * <p>
+	 * When the stream is made parallel the lines are read by a single thread and
+	 * handed off in batches to the {@code ForkJoinPool}.
+	 * </p>
 	 */
 	public Stream<OutputLine> streamOutputLines() {
-		Map<Integer, ProcessOutputInputStream> processOutputDataInputStreams = streamInputs()
-																								.collect(
-																										Collectors.toMap(
-																												Map.Entry::getKey,
-																												this::createProcessOutputInputStreamEntry));
-		ProcessOutputLineIterator processStreamIterator = new ProcessOutputLineIterator(
-				processOutputDataInputStreams, closeAfterLast);
+		return streamLines().map(OutputLine::decoded);
+	}
+
+	/**
+	 * Stream process output line by line keeping each line as bytes until it is
+	 * decoded by {@code OutputLine.line()}.
+	 */
+	private Stream<OutputLine> streamLines() {
+		ProcessOutputLineIterator processStreamIterator = new ProcessOutputLineIterator(this,
+				streamInputs().collect(Collectors.toList()), charset, null, closeAfterLast, false,
+				null);
 		return StreamSupport.stream(
-				Spliterators.spliteratorUnknownSize(processStreamIterator, Spliterator.ORDERED),
+				new ProcessOutputSpliterator<>(processStreamIterator, ProcessOutputSpliterator.DEFAULT_BATCH_SIZE,
+						Spliterator.ORDERED),
 				false)
 							.onClose(() -> {
 								try {
@@ -415,17 +747,313 @@ public class Jash implements AutoCloseable {
 							});
 	}
 
+	/**
+	 * Stream process output in batches of lines of the specified size and throws
+	 * an Exception if the process fails.
+	 * <p>
+	 * The returned stream is parallel, each batch is a separate task for the
+	 * {@code ForkJoinPool} while a single thread reads the output, so CPU heavy
+	 * work on the lines can use all the cores.
+	 * </p>
+	 */
+	public Stream<List<OutputLine>> streamLineBatches(int size) {
+		return streamLineBatches(size, true);
+	}
+
+	/**
+	 * Stream process output in batches of lines of the specified size and throws
+	 * an Exception if the process fails.
+	 * <p>
+	 * The returned stream is parallel. When not ordered terminal operations like
+	 * {@code forEach}, {@code findAny} or {@code limit} do not have to keep the
+	 * batches in the order they were read.
+	 * </p>
+	 */
+	public Stream<List<OutputLine>> streamLineBatches(int size, boolean ordered) {
+		if (size < 1) {
+			throw new IllegalArgumentException("The batch size must be positive");
+		}
+		ProcessOutputLineIterator processStreamIterator = new ProcessOutputLineIterator(this,
+				streamInputs().collect(Collectors.toList()), charset, null, closeAfterLast, false,
+				null);
+		return StreamSupport.stream(
+				new ProcessOutputSpliterator<>(ProcessOutputSpliterator.batches(processStreamIterator, size), 1,
+						ordered ? Spliterator.ORDERED : 0),
+				true)
+							.onClose(() -> {
+								try {
+									processStreamIterator.close();
+								} catch (IOException ex) {
+									throw new RuntimeException(ex);
+								}
+							})
+							.map(batch -> {
+								batch.replaceAll(OutputLine::decoded);
+								return batch;
+							});
+	}
+
+	/**
+	 * Stream the lines of the process output containing any of the specified
+	 * literals and throws an Exception if the process fails.
+	 * <p>
+	 * Lines are matched on the output bytes, only the matching ones are decoded.
+	 * </p>
+	 */
+	public Stream<OutputLine> grep(String... literals) {
+		return grep(GrepPattern.literals(literals));
+	}
+
+	/**
+	 * Stream the lines of the process output containing a match of the specified
+	 * regular expression and throws an Exception if the process fails.
+	 */
+	public Stream<OutputLine> grep(Pattern pattern) {
+		return grep(GrepPattern.regex(pattern));
+	}
+
+	/**
+	 * Stream the lines of the process output containing a match of the specified
+	 * pattern and throws an Exception if the process fails.
+	 */
+	public Stream<OutputLine> grep(GrepPattern pattern) {
+		final LineMatcher matcher = pattern.matcher(charset);
+		ProcessOutputGrepIterator processGrepIterator = new ProcessOutputGrepIterator(
+				new ProcessOutputLineIterator(this, streamInputs().collect(Collectors.toList()), charset, null,
+						closeAfterLast, true, matcher),
+				matcher, charset);
+		return StreamSupport.stream(
+				Spliterators.spliteratorUnknownSize(processGrepIterator, Spliterator.ORDERED),
+				false)
+							.onClose(() -> {
+								try {
+									processGrepIterator.close();
+								} catch (IOException ex) {
+									throw new RuntimeException(ex);
+								}
+							});
+	}
+
+	/**
+	 * Pass each match of the specified pattern in the process output to the
+	 * handler and throws an Exception if the process fails.
+	 * <p>
+	 * Lines are read the same way as {@link #forEachLine(LineHandler)} does, no
+	 * object is created for lines that do not match.
+	 * </p>
+	 */
+	public void forEachMatch(GrepPattern pattern, MatchHandler handler) {
+		final LineMatcher matcher = pattern.matcher(charset);
+		forEachLine((fd, line) -> matcher.forEachMatch(line, handler), matcher);
+	}
+
+	/**
+	 * Stream process output split in rows of fields and throws an Exception if the
+	 * process fails.
+	 * <p>
+	 * Each line is tokenized as specified without creating a {@code String} for
+	 * each field, the fields are converted only when accessed. The same
+	 * {@code OutputRow} is moved to each row, so it is valid only until the next
+	 * one is requested or the stream is closed.
+	 * </p>
+	 */
+	public Stream<OutputRow> streamRows(FieldSpec spec) {
+		ProcessOutputRowIterator processRowIterator = createProcessOutputRowIterator(spec);
+		return StreamSupport.stream(
+				Spliterators.spliteratorUnknownSize(processRowIterator, Spliterator.ORDERED),
+				false)
+							.onClose(() -> {
+								try {
+									processRowIterator.close();
+								} catch (IOException ex) {
+									throw new RuntimeException(ex);
+								}
+							});
+	}
+
+	private ProcessOutputRowIterator createProcessOutputRowIterator(FieldSpec spec) {
+		return new ProcessOutputRowIterator(
+				new ProcessOutputLineIterator(this, streamInputs().collect(Collectors.toList()), charset, null,
+						closeAfterLast, true, null),
+				spec, charset);
+	}
+
+	/**
+	 * Stream the whitespace separated numbers of the process stdout and throws an
+	 * Exception if the process fails.
+	 * <p>
+	 * The numbers are parsed directly from the output bytes, a
+	 * {@code NumberFormatException} reports the byte offset of an invalid one.
+	 * </p>
+	 */
+	public LongStream streamLongs() {
+		ProcessOutputNumberIterator processNumberIterator = new ProcessOutputNumberIterator(
+				createProcessOutputRowIterator(FieldSpec.whitespace()));
+		return StreamSupport.longStream(
+				Spliterators.spliteratorUnknownSize(processNumberIterator.longs(), Spliterator.ORDERED),
+				false)
+							.onClose(() -> {
+								try {
+									processNumberIterator.close();
+								} catch (IOException ex) {
+									throw new RuntimeException(ex);
+								}
+							});
+	}
+
+	/**
+	 * Stream the whitespace separated numbers of the process stdout and throws an
+	 * Exception if the process fails.
+	 * <p>
+	 * The numbers are parsed directly from the output bytes, a
+	 * {@code NumberFormatException} reports the byte offset of an invalid one.
+	 * </p>
+	 */
+	public IntStream streamInts() {
+		ProcessOutputNumberIterator processNumberIterator = new ProcessOutputNumberIterator(
+				createProcessOutputRowIterator(FieldSpec.whitespace()));
+		return StreamSupport.intStream(
+				Spliterators.spliteratorUnknownSize(processNumberIterator.ints(), Spliterator.ORDERED),
+				false)
+							.onClose(() -> {
+								try {
+									processNumberIterator.close();
+								} catch (IOException ex) {
+									throw new RuntimeException(ex);
+								}
+							});
+	}
+
+	/**
+	 * Stream the whitespace separated numbers of the process stdout and throws an
+	 * Exception if the process fails.
+	 * <p>
+	 * The numbers are parsed directly from the output bytes with the syntax
+	 * accepted by {@code Double.parseDouble(String)}, a
+	 * {@code NumberFormatException} reports the byte offset of an invalid one.
+	 * </p>
+	 */
+	public DoubleStream streamDoubles() {
+		ProcessOutputNumberIterator processNumberIterator = new ProcessOutputNumberIterator(
+				createProcessOutputRowIterator(FieldSpec.whitespace()));
+		return StreamSupport.doubleStream(
+				Spliterators.spliteratorUnknownSize(processNumberIterator.doubles(), Spliterator.ORDERED),
+				false)
+							.onClose(() -> {
+								try {
+									processNumberIterator.close();
+								} catch (IOException ex) {
+									throw new RuntimeException(ex);
+								}
+							});
+	}
+
+	/**
+	 * Return the sum of the whitespace separated numbers of the process stdout and
+	 * throws an Exception if the process fails.
+	 */
+	public long sumLongs() {
+		try (LongStream stream = streamLongs()) {
+			return stream.sum();
+		}
+	}
+
+	/**
+	 * Return the sum of the whitespace separated numbers of the process stdout and
+	 * throws an Exception if the process fails.
+	 */
+	public double sumDoubles() {
+		try (DoubleStream stream = streamDoubles()) {
+			return stream.sum();
+		}
+	}
+
+	/**
+	 * Stream process output split in records terminated by the specified
+	 * delimiter and throws an Exception if the process fails.
+	 * <p>
+	 * The delimiter is not included in the records, the last record is returned
+	 * even if not terminated. Useful for NUL terminated output like the one of
+	 * {@code find -print0}.
+	 * </p>
+	 */
+	public Stream<byte[]> streamRecords(byte delimiter) {
+		return streamRecords(new byte[] { delimiter });
+	}
+
+	/**
+	 * Stream process output split in records terminated by the specified sequence
+	 * of bytes and throws an Exception if the process fails.
+	 * <p>
+	 * The delimiter is not included in the records, the last record is returned
+	 * even if not terminated.
+	 * </p>
+	 */
+	public Stream<byte[]> streamRecords(byte[] delimiter) {
+		if (delimiter.length == 0) {
+			throw new IllegalArgumentException("The delimiter can not be empty");
+		}
+		ProcessOutputLineIterator processStreamIterator = new ProcessOutputLineIterator(this,
+				streamInputs().collect(Collectors.toList()), charset, delimiter.clone(), closeAfterLast, false,
+				null);
+		return StreamSupport.stream(
+				Spliterators.spliteratorUnknownSize(processStreamIterator, Spliterator.ORDERED),
+				false)
+							.onClose(() -> {
+								try {
+									processStreamIterator.close();
+								} catch (IOException ex) {
+									throw new RuntimeException(ex);
+								}
+							})
+							.map(OutputLine::bytes);
+	}
+
+	/**
+	 * Pass the process output line by line to the handler and throws an Exception
+	 * if the process fails.
+	 * <p>
+	 * Unlike {@link #streamOutputLines()} no object is created for each line, the
+	 * handler receives the same {@code OutputLineView} filled with a different
+	 * line each time, that is only valid until the handler returns.
+	 * </p>
+	 */
+	public void forEachLine(LineHandler handler) {
+		forEachLine(handler, null);
+	}
+
+	private void forEachLine(LineHandler handler, LineMatcher prefilter) {
+		ProcessOutputLineIterator processStreamIterator = new ProcessOutputLineIterator(this,
+				streamInputs().collect(Collectors.toList()), charset, null, closeAfterLast, true, prefilter);
+		try {
+			processStreamIterator.forEachLine(handler);
+		} catch (RuntimeException ex) {
+			if (!(ex instanceof ProcessException)) {
+				Exception exception = closeAndGetException();
+				if (exception != null) {
+					ex.addSuppressed(exception);
+				}
+			}
+			throw ex;
+		}
+	}
+
 	private ProcessOutputInputStream createProcessOutputInputStreamEntry(
-			SimpleEntry<Integer, InputStream> inputStreamForOutput) {
+			SimpleEntry<Integer, OutputPipe> inputStreamForOutput) {
 		return new ProcessOutputInputStream(this, inputStreamForOutput.getValue());
 	}
 
 	/**
 	 * Stream process output data and throws an Exception if the process fails.
+	 * <p>
+	 * Each {@code OutputData} may hold a pooled buffer, call
+	 * {@code OutputData.release()} when done with it to avoid allocating a new
+	 * buffer for each read.
+	 * </p>
 	 */
 	public Stream<OutputData> streamOutputData() {
-		ProcessOutputDataIterator processOutputIterator = createProcessOutputIteratorEntry(process, start,
-				streamInputs().collect(Collectors.toList()));
+		ProcessOutputDataIterator processOutputIterator = createProcessOutputIteratorEntry(
+				streamInputs().collect(Collectors.toList()), closeAfterLast);
 		return StreamSupport.stream(
 				Spliterators.spliteratorUnknownSize(processOutputIterator, Spliterator.ORDERED),
 				false)
@@ -438,44 +1066,136 @@ public class Jash implements AutoCloseable {
 							});
 	}
 
-	private Stream<SimpleEntry<Integer, InputStream>> streamInputs() {
-		return Stream	.of(
-								new SimpleEntry<>(outputs.compute(STDOUT, (key, value) -> key),
-										process.getInputStream()),
-								new SimpleEntry<>(outputs.compute(STDERR, (key, value) -> key),
-										process.getErrorStream()))
-						.filter(e -> outputs.containsKey(e.getKey()));
+	/**
+	 * The pipes to read, each one with the fd it is output as. A piped fd that is
+	 * not output is drained and dropped, so the process does not block once the
+	 * operating system pipe is full.
+	 */
+	private Stream<SimpleEntry<Integer, OutputPipe>> streamInputs() {
+		List<SimpleEntry<Integer, OutputPipe>> inputs = new ArrayList<>(2);
+		for (int fd : new int[] { STDOUT, STDERR }) {
+			if (!processBuilder.isPiped(fd)) {
+				continue;
+			}
+			if (outputs.containsKey(fd)) {
+				inputs.add(new SimpleEntry<>(outputs.get(fd), outputPipes.pipe(fd)));
+			} else {
+				outputPipes.discard(fd);
+			}
+		}
+		return inputs.stream();
+	}
+
+	/**
+	 * Return the inputs output as stdout, the other pipes are discarded so the
+	 * process does not block writing to them.
+	 */
+	private List<SimpleEntry<Integer, OutputPipe>> stdoutInputs() {
+		List<SimpleEntry<Integer, OutputPipe>> inputs = new ArrayList<>(2);
+		streamInputs().forEach(input -> {
+			if (input.getKey() == STDOUT) {
+				inputs.add(input);
+			} else {
+				input.getValue().discard();
+			}
+		});
+		return inputs;
+	}
+
+	/**
+	 * Return true if stdout can be read directly, nothing read it yet and it is
+	 * the only output as stdout.
+	 */
+	private boolean isStdoutOnly() {
+		return !outputPipes.isDraining(STDOUT)
+				&& Integer.valueOf(STDOUT).equals(outputs.get(STDOUT))
+				&& !(processBuilder.isPiped(STDERR) && Integer.valueOf(STDOUT).equals(outputs.get(STDERR)));
 	}
 
 	/**
 	 * Stream process byte arrays and throws an Exception if the process fails.
 	 */
 	public Stream<byte[]> streamBytes() {
-		return streamOutputData().map(OutputData::bytes);
+		return streamOutputData().map(Jash::releaseBytes);
 	}
 
 	/**
 	 * Stream process stdout and throws an Exception if the process fails.
 	 */
 	public Stream<byte[]> streamStdoutBytes() {
-		return streamOutputData().filter(OutputData::isStdout).map(OutputData::bytes);
+		return streamOutputData().filter(OutputData::isStdout).map(Jash::releaseBytes);
 	}
 
 	/**
 	 * Stream process stderr and throws an Exception if the process fails.
 	 */
 	public Stream<byte[]> streamStderrBytes() {
-		return streamOutputData().filter(OutputData::isStderr).map(OutputData::bytes);
+		return streamOutputData().filter(OutputData::isStderr).map(Jash::releaseBytes);
+	}
+
+	/**
+	 * Stream read-only views of the process output and throws an Exception if the
+	 * process fails.
+	 * <p>
+	 * The data is not copied, each {@code ByteBuffer} is valid only until the next
+	 * one is requested or the stream is closed.
+	 * </p>
+	 */
+	public Stream<ByteBuffer> streamOutputBuffers() {
+		return streamOutputBuffers(data -> true);
+	}
+
+	/**
+	 * Stream read-only views of the process stdout and throws an Exception if the
+	 * process fails.
+	 * <p>
+	 * The data is not copied, each {@code ByteBuffer} is valid only until the next
+	 * one is requested or the stream is closed.
+	 * </p>
+	 */
+	public Stream<ByteBuffer> streamStdoutBuffers() {
+		return streamOutputBuffers(OutputData::isStdout);
+	}
+
+	/**
+	 * Stream read-only views of the process stderr and throws an Exception if the
+	 * process fails.
+	 * <p>
+	 * The data is not copied, each {@code ByteBuffer} is valid only until the next
+	 * one is requested or the stream is closed.
+	 * </p>
+	 */
+	public Stream<ByteBuffer> streamStderrBuffers() {
+		return streamOutputBuffers(OutputData::isStderr);
+	}
+
+	private Stream<ByteBuffer> streamOutputBuffers(Predicate<OutputData> filter) {
+		OutputBufferIterator outputBufferIterator = new OutputBufferIterator(
+				createProcessOutputIteratorEntry(streamInputs().collect(Collectors.toList()), closeAfterLast),
+				filter);
+		return StreamSupport.stream(
+				Spliterators.spliteratorUnknownSize(outputBufferIterator, Spliterator.ORDERED),
+				false)
+							.onClose(() -> {
+								try {
+									outputBufferIterator.close();
+								} catch (IOException ex) {
+									throw new RuntimeException(ex);
+								}
+							});
+	}
+
+	private static byte[] releaseBytes(OutputData data) {
+		try {
+			return data.bytes();
+		} finally {
+			data.release();
+		}
 	}
 
 	private ProcessOutputDataIterator createProcessOutputIteratorEntry(
-			CustomProcess process, Instant start,
-			List<SimpleEntry<Integer, InputStream>> inputStreamForOutputList) {
-		final Map<Integer, InputStream> inputStreamForOutputs = inputStreamForOutputList.stream()
-																						.collect(Collectors.toMap(
-																								Map.Entry::getKey,
-																								Map.Entry::getValue));
-		return new ProcessOutputDataIterator(this, closeAfterLast, inputStreamForOutputs);
+			List<SimpleEntry<Integer, OutputPipe>> inputStreamForOutputList, boolean closeOnLast) {
+		return new ProcessOutputDataIterator(this, closeOnLast, inputStreamForOutputList);
 	}
 
 	/**
@@ -483,8 +1203,9 @@ public class Jash implements AutoCloseable {
 	 * fail.
 	 */
 	public boolean isSuccessful() {
-		try (Stream<?> stream = streamOutputData()) {
-			return stream.allMatch(data -> true);
+		try {
+			join();
+			return true;
 		} catch (RuntimeException ex) {
 			return false;
 		}
@@ -492,11 +1213,55 @@ public class Jash implements AutoCloseable {
 
 	/**
 	 * Just run the command discarding the output.
+	 * <p>
+	 * When no output is read through a pipe, because it is redirected or not
+	 * output, this only waits for the process to exit.
+	 * </p>
 	 */
 	public void join() {
-		try (Stream<?> stream = streamOutputData()) {
-			stream.allMatch(data -> true);
+		if (!streamInputs().findAny().isPresent()) {
+			try {
+				process.waitFor();
+			} catch (InterruptedException ex) {
+				throw new RuntimeException(ex);
+			}
+			close();
+			return;
+		}
+		try (Stream<OutputData> stream = streamOutputData()) {
+			stream.forEach(OutputData::release);
+		}
+	}
+
+	/**
+	 * Return the last complete lines of stdout and stderr captured so far, up to
+	 * the specified count for each one, the stdout lines before the stderr ones.
+	 * <p>
+	 * Can be called while the process runs from a thread other than the one
+	 * reading the output. Use {@code JashBuilder.redirectStderrToStdout()} to get
+	 * the lines of both in the order they were written.
+	 * </p>
+	 *
+	 * @throws IllegalStateException if the output is not captured, see
+	 *                               {@code JashBuilder.captureOutput(int, int)}
+	 */
+	public List<OutputLine> tail(int lines) {
+		return outputTail().lines(lines);
+	}
+
+	/**
+	 * Return the first and last bytes of stdout and stderr captured so far and how
+	 * many were dropped in between.
+	 *
+	 * @throws IllegalStateException if the output is not captured, see
+	 *                               {@code JashBuilder.captureOutput(int, int)}
+	 */
+	public OutputTail outputTail() {
+		OutputTail outputTail = outputPipes.outputTail();
+		if (outputTail == null) {
+			throw new IllegalStateException("The output is not captured, see JashBuilder.captureOutput(int, int)");
 		}
+		return outputTail;
 	}
 
 	/**
@@ -519,7 +1284,7 @@ public class Jash implements AutoCloseable {
 	 */
 	public Output tryGet(CharSequence delimiter) {
 		try {
-			Stream<OutputLine> stream = streamOutputLines();
+			Stream<OutputLine> stream = streamLines();
 			Optional<Map<Integer, String>> output = Optional.of(
 					stream
 							.reduce(new HashMap<Integer, StringJoiner>(
@@ -528,7 +1293,7 @@ public class Jash implements AutoCloseable {
 													new SimpleEntry<>(STDERR, new StringJoiner(delimiter)))
 											.collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue))),
 									(outputBuilder, line) -> {
-										outputBuilder.get(line.fd).add(line.line);
+										outputBuilder.get(line.fd()).add(line.line());
 										return outputBuilder;
 									},
 									(u, v) -> v))
@@ -573,6 +1338,78 @@ public class Jash implements AutoCloseable {
 		return stream().collect(Collectors.joining(delimiter));
 	}
 
+	/**
+	 * Return a future completed with the process output once the process exited.
+	 * <p>
+	 * No thread waits for the process: the output is collected by the threads
+	 * draining the pipes as it arrives. If the process fails the future completes
+	 * exceptionally with the {@code ProcessException}, unless
+	 * {@link #withoutCloseAfterLast()} was called: then it completes with an
+	 * {@code Output} holding both the output and the exception, like
+	 * {@link #tryGet()} does.
+	 * </p>
+	 */
+	public CompletableFuture<Output> getAsync() {
+		return getAsync(NEWLINE_DELIMITER);
+	}
+
+	/**
+	 * Return a future completed with the process output lines delimited by
+	 * specified character once the process exited.
+	 *
+	 * @see #getAsync()
+	 */
+	public CompletableFuture<Output> getAsync(CharSequence delimiter) {
+		return new ProcessOutputCollector(this, outputPipes, streamInputs().collect(Collectors.toList()), charset,
+				delimiter, false)
+									.start()
+									.thenApplyAsync(output -> {
+										Exception exception = closeAfterExit();
+										if (exception != null && closeAfterLast) {
+											throw new CompletionException(exception);
+										}
+										return new Output(
+												Optional.of(output.get(STDOUT)),
+												Optional.of(output.get(STDERR)),
+												Optional.ofNullable(exception));
+									}, pumpExecutor());
+	}
+
+	/**
+	 * Return a future completed with the exit code once the process exited,
+	 * discarding its output.
+	 * <p>
+	 * If the exit code is not allowed or the process timed out the future
+	 * completes exceptionally with the {@code ProcessException}, like
+	 * {@link #getExitCode()} does.
+	 * </p>
+	 */
+	public CompletableFuture<Integer> exitCodeAsync() {
+		return new ProcessOutputCollector(this, outputPipes, streamInputs().collect(Collectors.toList()), charset,
+				NEWLINE_DELIMITER, true)
+										.start()
+										.thenApplyAsync(output -> {
+											Exception exception = closeAfterExit();
+											if (exception != null) {
+												throw new CompletionException(exception);
+											}
+											return process.exitValue();
+										}, pumpExecutor());
+	}
+
+	/**
+	 * Return a future completed with this {@code Jash} once the process exited.
+	 * <p>
+	 * The output is not read, a process writing more than the pipes can hold will
+	 * not exit until something reads it. The future does not complete
+	 * exceptionally if the exit code is not allowed.
+	 * </p>
+	 */
+	public CompletableFuture<Jash> onExit() {
+		return process	.onExit()
+						.thenApply(ignored -> this);
+	}
+
 	/**
 	 * Return an {@code InputStream} with the process stdout.
 	 * <p>
@@ -580,12 +1417,10 @@ public class Jash implements AutoCloseable {
 	 * </P>
 	 */
 	public InputStream asInputStream() {
-		final InputStream stdoutInputStream = streamInputs()
-															.filter(e -> e.getKey() == STDOUT)
-															.map(Map.Entry::getValue)
-															.findAny()
-															.orElse(EMPTY_INPUT_STREAM);
-		return new ProcessOutputInputStream(this, stdoutInputStream);
+		return stdoutInputs()	.stream()
+								.findAny()
+								.<InputStream>map(this::createProcessOutputInputStreamEntry)
+								.orElse(EMPTY_INPUT_STREAM);
 	}
 
 	/**
@@ -609,11 +1444,20 @@ public class Jash implements AutoCloseable {
 		writeToStdin(inputStream, true, true);
 	}
 
+	/**
+	 * A {@code FileInputStream} is read in chunks as big as the operating system
+	 * pipe, reads from a file never block so each one fills the stdin pipe.
+	 */
 	private void writeToStdin(InputStream inputStream, boolean closeOutput, boolean closeProcess) {
+		writeToStdin(inputStream, inputStream instanceof FileInputStream ? TRANSFER_SIZE : STDIN_BUFFER_SIZE,
+				closeOutput, closeProcess);
+	}
+
+	private void writeToStdin(InputStream inputStream, int bufferSize, boolean closeOutput, boolean closeProcess) {
 		try {
 			OutputStream outputStream = process.getOutputStream();
+			byte[] inputBuffer = BufferPool.INSTANCE.acquire(bufferSize);
 			try {
-				byte[] inputBuffer = new byte[8192];
 				while (true) {
 					int value = inputStream.read(inputBuffer);
 					if (value >= 0) {
@@ -625,6 +1469,7 @@ public class Jash implements AutoCloseable {
 					}
 				}
 			} finally {
+				BufferPool.INSTANCE.release(inputBuffer);
 				outputStream.flush();
 				if (closeOutput) {
 					outputStream.close();
@@ -641,26 +1486,69 @@ public class Jash implements AutoCloseable {
 
 	/**
 	 * Write process stdout to an {@code OutputStream}.
+	 * <p>
+	 * A {@code FileOutputStream} is written as with
+	 * {@code writeToChannel(FileChannel)}.
+	 * </p>
 	 */
 	public void writeToOutputStream(OutputStream outputStream) {
+		if (outputStream instanceof FileOutputStream && isStdoutOnly()) {
+			registerCloseable(outputStream);
+			transferStdout(((FileOutputStream) outputStream).getChannel());
+			return;
+		}
 		try {
 			registerCloseable(outputStream);
 			try {
-				InputStream inputStream = streamInputs().filter(e -> e.getKey() == STDOUT)
-														.map(Map.Entry::getValue)
-														.findAny()
-														.orElse(null);
-				if (inputStream != null) {
-					byte[] inputBuffer = new byte[8192];
-					while (true) {
-						int value = inputStream.read(inputBuffer);
-						if (value >= 0) {
-							if (value > 0) {
-								outputStream.write(inputBuffer, 0, value);
-							}
-						} else {
-							break;
+				ProcessOutputDataIterator processOutputIterator = createProcessOutputIteratorEntry(
+						stdoutInputs(),
+						false);
+				while (processOutputIterator.hasNext()) {
+					OutputData data = processOutputIterator.next();
+					try {
+						data.writeTo(outputStream);
+					} finally {
+						data.release();
+					}
+				}
+			} finally {
+				process.waitFor();
+				close();
+			}
+		} catch (IOException | InterruptedException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/**
+	 * Write process stdout to a {@code FileChannel}.
+	 * <p>
+	 * If stdout was not read yet it is copied in chunks as big as the operating
+	 * system pipe on a thread of its own, skipping the output pipes of this
+	 * process. Use {@code JashBuilder.stdoutTo(Path)} for stdout to
+	 * not go through the JVM at all.
+	 * </p>
+	 */
+	public void writeToChannel(FileChannel channel) {
+		registerCloseable(channel);
+		if (isStdoutOnly()) {
+			transferStdout(channel);
+			return;
+		}
+		try {
+			try {
+				ProcessOutputDataIterator processOutputIterator = createProcessOutputIteratorEntry(
+						stdoutInputs(),
+						false);
+				while (processOutputIterator.hasNext()) {
+					OutputData data = processOutputIterator.next();
+					try {
+						ByteBuffer buffer = data.buffer();
+						while (buffer.hasRemaining()) {
+							channel.write(buffer);
 						}
+					} finally {
+						data.release();
 					}
 				}
 			} finally {
@@ -672,6 +1560,120 @@ public class Jash implements AutoCloseable {
 		}
 	}
 
+	/**
+	 * Capture the whole process stdout, kept in memory up to a threshold that
+	 * depends on the heap that could still be allocated and spilled to a
+	 * temporary file past it.
+	 * <p>
+	 * Unlike {@link #get()} the output is not decoded nor joined in a
+	 * {@code String}. Close the returned {@code CapturedOutput} to delete the
+	 * temporary file.
+	 * </p>
+	 */
+	public CapturedOutput capture() {
+		return capture(CapturedOutput.threshold());
+	}
+
+	/**
+	 * Capture the whole process stdout, kept in memory up to the specified bytes
+	 * and spilled to a temporary file past it.
+	 *
+	 * @see #capture()
+	 */
+	public CapturedOutput capture(long thresholdBytes) {
+		if (thresholdBytes < 0) {
+			throw new IllegalArgumentException("The threshold can not be negative");
+		}
+		CapturedOutput capturedOutput = new CapturedOutput(thresholdBytes, charset);
+		try {
+			try {
+				ProcessOutputDataIterator processOutputIterator = createProcessOutputIteratorEntry(
+						stdoutInputs(),
+						false);
+				while (processOutputIterator.hasNext()) {
+					OutputData data = processOutputIterator.next();
+					try {
+						capturedOutput.append(data.buffer());
+					} finally {
+						data.release();
+					}
+				}
+			} finally {
+				process.waitFor();
+				close();
+			}
+			return capturedOutput;
+		} catch (IOException | InterruptedException | RuntimeException ex) {
+			try {
+				capturedOutput.close();
+			} catch (IOException closeEx) {
+				ex.addSuppressed(closeEx);
+			}
+			if (ex instanceof RuntimeException) {
+				throw (RuntimeException) ex;
+			}
+			throw new RuntimeException(ex);
+		}
+	}
+
+	/**
+	 * Transfer stdout to the channel until the end of stream while stderr is
+	 * discarded. Once the process exited the transfer is given a grace period, a
+	 * background child may still hold stdout open, like for the output pipes: then
+	 * stdout is closed to end the transfer.
+	 * <p>
+	 * Closing stdout does not wake up a read already waiting for the background
+	 * child, so the transfer runs on a daemon thread rather than on the
+	 * {@code PumpExecutor}, as the threads draining the output pipes do.
+	 * </p>
+	 */
+	private void transferStdout(FileChannel channel) {
+		if (processBuilder.isPiped(STDERR)) {
+			outputPipes.discard(STDERR);
+		}
+		InputStream stdout = process.getInputStream();
+		try {
+			try {
+				CompletableFuture<Void> transfer = new CompletableFuture<>();
+				Thread thread = new Thread(() -> {
+					byte[] buffer = BufferPool.INSTANCE.acquire(TRANSFER_SIZE);
+					try {
+						int read;
+						while ((read = stdout.read(buffer)) >= 0) {
+							ByteBuffer data = ByteBuffer.wrap(buffer, 0, read);
+							while (data.hasRemaining()) {
+								channel.write(data);
+							}
+						}
+						transfer.complete(null);
+					} catch (IOException ex) {
+						transfer.completeExceptionally(ex);
+					} finally {
+						BufferPool.INSTANCE.release(buffer);
+					}
+				}, "jash-transfer-stdout");
+				thread.setDaemon(true);
+				thread.start();
+				CompletableFuture.anyOf(transfer, process.onExit()).get();
+				transfer.get(OutputPipes.EXIT_GRACE_NANOS, TimeUnit.NANOSECONDS);
+			} catch (TimeoutException ex) {
+				// a background child still holds stdout
+				try {
+					stdout.close();
+				} catch (IOException closeEx) {
+					// the transfer ends anyway
+				}
+			} catch (ExecutionException ex) {
+				throw new RuntimeException(ex.getCause());
+			} finally {
+				process.waitFor();
+				close();
+			}
+		} catch (InterruptedException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
 	/**
 	 * Useful method to transform this object using a lambda.
 	 * <p>
@@ -689,8 +1691,8 @@ public class Jash implements AutoCloseable {
 	/**
 	 * Pipe this process with supplied process.
 	 * <p>
-	 * This method create a thread using the default {@code CompletableFuture}
-	 * {@code Executor}. The thread will be closed when the process exits.
+	 * This method create a thread using the {@code PumpExecutor} of this process.
+	 * The thread will be closed when the process exits.
 	 * </p>
 	 */
 	public Jash pipe(Jash jash) {
@@ -720,8 +1722,8 @@ public class Jash implements AutoCloseable {
 	 * Pipe this process stdout with the stdin of process started from specified
 	 * command.
 	 * <p>
-	 * This method create a thread using the default {@code CompletableFuture}
-	 * {@code Executor}. The thread will be closed when the process exits.
+	 * This method create a thread using the {@code PumpExecutor} of this process.
+	 * The thread will be closed when the process exits.
 	 * </p>
 	 */
 	@SuppressWarnings("resource")
@@ -739,8 +1741,8 @@ public class Jash implements AutoCloseable {
 	/**
 	 * Write an {@code InputStream} to this process stdin.
 	 * <p>
-	 * This method create a thread using the default {@code CompletableFuture}
-	 * {@code Executor}. The thread will be closed when the process exits.
+	 * This method create a thread using the {@code PumpExecutor} of this process.
+	 * The thread will be closed when the process exits.
 	 * </p>
 	 */
 	public Jash inputStreamWihtoutClosing(InputStream inputStream) {
@@ -763,8 +1765,8 @@ public class Jash implements AutoCloseable {
 	/**
 	 * Write a {@code Stream<String>} to this process stdin.
 	 * <p>
-	 * This method create a thread using the default {@code CompletableFuture}
-	 * {@code Executor}. The thread will be closed when the process exits.
+	 * This method create a thread using the {@code PumpExecutor} of this process.
+	 * The thread will be closed when the process exits.
 	 * </p>
 	 */
 	public Jash inputStreamWihtoutClosing(Stream<String> stream) {
@@ -789,8 +1791,8 @@ public class Jash implements AutoCloseable {
 	/**
 	 * Write a {@code Stream<byte[]>} to this process stdin.
 	 * <p>
-	 * This method create a thread using the default {@code CompletableFuture}
-	 * {@code Executor}. The thread will be closed when the process exits.
+	 * This method create a thread using the {@code PumpExecutor} of this process.
+	 * The thread will be closed when the process exits.
 	 * </p>
 	 */
 	public Jash inputStreamOfBytesWihtoutClosing(Stream<byte[]> stream) {
@@ -815,8 +1817,8 @@ public class Jash implements AutoCloseable {
 	/**
 	 * Write an {@code InputStream} to this process stdin and closes it.
 	 * <p>
-	 * This method create a thread using the default {@code CompletableFuture}
-	 * {@code Executor}. The thread will be closed when the process exits.
+	 * This method create a thread using the {@code PumpExecutor} of this process.
+	 * The thread will be closed when the process exits.
 	 * </p>
 	 */
 	public Jash inputStream(InputStream inputStream) {
@@ -836,11 +1838,27 @@ public class Jash implements AutoCloseable {
 		return this;
 	}
 
+	/**
+	 * Write a {@code FileChannel} from its position to this process stdin and
+	 * closes it.
+	 * <p>
+	 * This method create a thread using the {@code PumpExecutor} of this process.
+	 * The thread will be closed when the process exits. Use
+	 * {@code JashBuilder.stdinFrom(Path)} for the file to not go through the JVM at
+	 * all.
+	 * </p>
+	 */
+	public Jash inputStream(FileChannel channel) {
+		runAsyncWithStdin(this, () -> writeToStdin(Channels.newInputStream(channel), TRANSFER_SIZE, true, false),
+				channel::close, null);
+		return this;
+	}
+
 	/**
 	 * Write a {@code Stream<String>} to this process stdin and closes it.
 	 * <p>
-	 * This method create a thread using the default {@code CompletableFuture}
-	 * {@code Executor}. The thread will be closed when the process exits.
+	 * This method create a thread using the {@code PumpExecutor} of this process.
+	 * The thread will be closed when the process exits.
 	 * </p>
 	 */
 	public Jash inputStream(Stream<String> stream) {
@@ -862,11 +1880,25 @@ public class Jash implements AutoCloseable {
 		return this;
 	}
 
+	/**
+	 * Write a {@code Stream<String>} to this process stdin, each line followed by
+	 * the specified delimiter, and closes it.
+	 * <p>
+	 * This method create a thread using the {@code PumpExecutor} of this process.
+	 * The thread will be closed when the process exits.
+	 * </p>
+	 */
+	public Jash inputStream(Stream<String> stream, byte[] delimiter) {
+		InputStream inputStream = new LineStreamInputStream(stream, delimiter.clone());
+		runAsyncWithStdin(this, inputStream, inputStream::close, null, true);
+		return this;
+	}
+
 	/**
 	 * Write a {@code Stream<byte[]>} to this process stdin and closes it.
 	 * <p>
-	 * This method create a thread using the default {@code CompletableFuture}
-	 * {@code Executor}. The thread will be closed when the process exits.
+	 * This method create a thread using the {@code PumpExecutor} of this process.
+	 * The thread will be closed when the process exits.
 	 * </p>
 	 */
 	public Jash inputStreamOfBytes(Stream<byte[]> stream) {
@@ -888,20 +1920,39 @@ public class Jash implements AutoCloseable {
 		return this;
 	}
 
+	/**
+	 * Write a {@code Stream<byte[]>} to this process stdin, each record followed by
+	 * the specified delimiter, and closes it.
+	 * <p>
+	 * Useful to feed NUL terminated records to commands like {@code xargs -0}.
+	 * This method create a thread using the {@code PumpExecutor} of this process.
+	 * The thread will be closed when the process exits.
+	 * </p>
+	 */
+	public Jash inputStreamOfRecords(Stream<byte[]> stream, byte[] delimiter) {
+		InputStream inputStream = LineStreamInputStream.ofBytes(stream, delimiter.clone());
+		runAsyncWithStdin(this, inputStream, inputStream::close, null, true);
+		return this;
+	}
+
+	/**
+	 * The executor for the pumps of this process, blocking tasks that must not run
+	 * on the common {@code ForkJoinPool}.
+	 */
+	PumpExecutor pumpExecutor() {
+		return pumpExecutor == null ? PumpExecutor.getDefault() : pumpExecutor;
+	}
+
 	private void runAsyncWithStdin(Jash jash,
 			InputStream inputStream, AutoCloseable closeable, Executor executor,
 			boolean closeStdin) {
-		final CompletableFuture<Void> future;
-		if (executor == null) {
-			future = CompletableFuture
-										.runAsync(() -> jash.writeToStdin(
-												inputStream, closeStdin, false));
-		} else {
-			future = CompletableFuture
-										.runAsync(() -> jash.writeToStdin(
-												inputStream, closeStdin, false),
-												executor);
-		}
+		runAsyncWithStdin(jash, () -> jash.writeToStdin(inputStream, closeStdin, false), closeable, executor);
+	}
+
+	private void runAsyncWithStdin(Jash jash, Runnable pump, AutoCloseable closeable, Executor executor) {
+		final CompletableFuture<Void> future = CompletableFuture
+																.runAsync(pump,
+																		executor == null ? jash.pumpExecutor() : executor);
 		final CompletableFuture<Void> futureWithClose = future
 																.thenRun(() -> {
 																	try {
@@ -960,6 +2011,9 @@ public class Jash implements AutoCloseable {
 	@Override
 	public void close() {
 		Exception exception = closeAndGetException();
+		if (isTimedOut()) {
+			throw timeoutException(exception);
+		}
 		if (exception != null) {
 			if (exception instanceof RuntimeException) {
 				throw RuntimeException.class.cast(exception);
@@ -972,21 +2026,100 @@ public class Jash implements AutoCloseable {
 		this.closeables.add(closeable);
 	}
 
-	void checkTimeout() {
-		if (this.end.map(e -> Instant.now().isAfter(e)).orElse(false)) {
-			Exception exception = closeAndGetException();
-			ProcessTimeoutException timeoutException = new ProcessTimeoutException(
-					timeout, processBuilder.command());
-			if (exception != null) {
-				timeoutException.addSuppressed(exception);
+	/**
+	 * Close the previous process of a native pipeline along with this one and
+	 * drain its stderr, nothing else reads it.
+	 * <p>
+	 * The JVM keeps the read end of the pipe between both processes open, so the
+	 * previous process does not get a SIGPIPE once this one exited without reading
+	 * all its output. It is given a grace period to exit and then killed without
+	 * its exit code being checked, as a shell pipeline ignores a SIGPIPE. It is
+	 * killed and checked if this one was killed.
+	 * </p>
+	 */
+	void pipedFrom(Jash upstream) {
+		if (upstream.processBuilder.isPiped(STDERR)) {
+			upstream.outputPipes.discard(STDERR);
+		}
+		registerCloseable(() -> {
+			if (brokenPipe || !process.isDestroyed()) {
+				try {
+					upstream.brokenPipe = !upstream.process.waitFor(OutputPipes.EXIT_GRACE_NANOS,
+							TimeUnit.NANOSECONDS) || upstream.process.exitValue() == SIGPIPE_EXIT_CODE;
+				} catch (InterruptedException ex) {
+					throw new RuntimeException(ex);
+				}
 			}
-			throw timeoutException;
+			upstream.close();
+		});
+	}
+
+	/**
+	 * Throw a {@code ProcessTimeoutException} if the {@code Watchdog} killed the
+	 * process because the timeout elapsed. A volatile read, cheap enough to be
+	 * called for each line.
+	 */
+	void checkTimeout() {
+		if (isTimedOut()) {
+			throw timeoutException(closeAndGetException());
 		}
 	}
 
-	void microSleep() {
+	private boolean isTimedOut() {
+		return (deadline != null && deadline.isExpired())
+				|| (idleDeadline != null && idleDeadline.isExpired())
+				|| (stallDeadline != null && stallDeadline.isExpired())
+				|| outputPipes.killedOnTimeout() != null;
+	}
+
+	private ProcessTimeoutException timeoutException(Exception exception) {
+		final ProcessTimeoutException timeoutException;
+		if (idleDeadline != null && idleDeadline.isExpired()) {
+			timeoutException = new ProcessIdleTimeoutException(ProcessIdleTimeoutException.Condition.NO_OUTPUT,
+					idleTimeout, processBuilder.command());
+		} else if (stallDeadline != null && stallDeadline.isExpired()) {
+			timeoutException = new ProcessIdleTimeoutException(
+					ProcessIdleTimeoutException.Condition.NO_CPU_PROGRESS, stallTimeout, processBuilder.command());
+		} else if ((deadline == null || !deadline.isExpired()) && outputPipes.killedOnTimeout() != null) {
+			// the deadline of another Jash sharing the process killed it
+			timeoutException = outputPipes.killedOnTimeout().get();
+		} else {
+			timeoutException = new ProcessTimeoutException(timeout, processBuilder.command());
+		}
+		if (exception != null) {
+			timeoutException.addSuppressed(exception);
+		}
+		return timeoutException;
+	}
+
+	long outputVersion() {
+		return outputPipes.version();
+	}
+
+	boolean isFinished(OutputPipe pipe) {
+		return outputPipes.isFinished(pipe);
+	}
+
+	/**
+	 * Let the {@code WaitStrategy} wait for any of the output pipes to change after
+	 * the specified version, the timeout to be reached or the time to check again
+	 * if the process is alive.
+	 * <p>
+	 * When all the specified pipes reached the end of stream nothing will change
+	 * anymore so the blocking wait is for the process to exit instead.
+	 * </p>
+	 */
+	void awaitOutput(Collection<OutputPipe> pipes, long version, int attempt) {
+		// the watchdog wakes up readers when it kills the process
+		long nanos = OutputPipes.LIVENESS_CHECK_NANOS;
 		try {
-			Thread.sleep(0, 20_000);
+			waitStrategy.idle(attempt, nanos, maxNanos -> {
+				if (pipes.stream().allMatch(OutputPipe::isEof)) {
+					process.waitFor(maxNanos, TimeUnit.NANOSECONDS);
+				} else {
+					outputPipes.await(version, maxNanos);
+				}
+			});
 		} catch (InterruptedException ex) {
 			throw new RuntimeException(ex);
 		}
@@ -996,19 +2129,40 @@ public class Jash implements AutoCloseable {
 		return !process.isAlive();
 	}
 
+	/**
+	 * Close once the process exited and its output was read, reporting the
+	 * timeout if the {@code Watchdog} killed it.
+	 */
+	private Exception closeAfterExit() {
+		Exception exception = closeAndGetException();
+		if (isTimedOut()) {
+			return timeoutException(exception);
+		}
+		return exception;
+	}
+
 	private Exception closeAndGetException() {
+		if (deadline != null) {
+			deadline.cancel();
+		}
+		if (idleDeadline != null) {
+			idleDeadline.cancel();
+		}
+		if (stallDeadline != null) {
+			stallDeadline.cancel();
+		}
 		Exception exception = null;
 		if (process.isAlive()) {
 			process.destroyForcibly();
 			try {
 				int exitCode = process.waitFor();
-				exception = checkExitCode(exitCode);
+				exception = brokenPipe ? null : checkExitCode(exitCode);
 			} catch (InterruptedException ex) {
 				throw new RuntimeException(ex);
 			}
 		} else {
 			int exitCode = process.exitValue();
-			exception = checkExitCode(exitCode);
+			exception = brokenPipe ? null : checkExitCode(exitCode);
 		}
 		while (!closeables.isEmpty()) {
 			try {
@@ -1026,7 +2180,7 @@ public class Jash implements AutoCloseable {
 
 	private Exception checkExitCode(int exitCode) {
 		if (!exitCodePredicate.test(exitCode)) {
-			return new ProcessException(exitCode, processBuilder.command());
+			return new ProcessException(exitCode, processBuilder.command(), outputPipes.outputTail());
 		}
 		return null;
 	}
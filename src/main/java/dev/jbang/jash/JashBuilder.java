@@ -22,7 +22,11 @@ package dev.jbang.jash;
 
 import static dev.jbang.jash.Jash.DEFAULT_EXIT_CODE_PREDICATE;
 
+import java.io.File;
 import java.io.IOException;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
@@ -32,6 +36,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
@@ -39,6 +44,8 @@ import java.util.stream.Stream;
 
 public class JashBuilder {
 
+	private static final Redirect DISCARD = discardRedirect();
+
 	final String command;
 	boolean asShell = false;
 	String shell;
@@ -55,6 +62,17 @@ public class JashBuilder {
 	boolean closeAfterLast = true;
 	Predicate<Integer> exitCodePredicate = DEFAULT_EXIT_CODE_PREDICATE;
 	Duration timeout = null;
+	WaitStrategy waitStrategy = WaitStrategy.blocking();
+	Charset charset = StandardCharsets.UTF_8;
+	boolean multiplexOutput = false;
+	PumpExecutor pumpExecutor = null;
+	JashBuilder upstream = null;
+	Redirect stdinRedirect = null;
+	Redirect stdoutRedirect = null;
+	Redirect stderrRedirect = null;
+	boolean captureOutput = false;
+	int captureHeadBytes = 0;
+	int captureTailBytes = 0;
 
 	/**
 	 * Create a builder for specified command.
@@ -197,6 +215,71 @@ public class JashBuilder {
 		return this;
 	}
 
+	/**
+	 * Set the strategy used to wait for the process output.
+	 */
+	public JashBuilder waitStrategy(WaitStrategy waitStrategy) {
+		this.waitStrategy = waitStrategy;
+		return this;
+	}
+
+	/**
+	 * Set the charset used to decode the process output lines, UTF-8 by default.
+	 * <p>
+	 * Lines are split on bytes so the charset must encode line feed and carriage
+	 * return as the single ASCII bytes, like UTF-8 or ISO-8859-1 do.
+	 * </p>
+	 */
+	public JashBuilder charset(Charset charset) {
+		if (!Arrays.equals("\r\n".getBytes(charset), new byte[] { '\r', '\n' })) {
+			throw new IllegalArgumentException("Charset " + charset + " is not ASCII compatible");
+		}
+		this.charset = charset;
+		return this;
+	}
+
+	/**
+	 * Read the process output from a few threads shared by all the processes
+	 * started this way instead of a thread per output pipe.
+	 * <p>
+	 * Useful when running a lot of processes at once at the cost of some latency.
+	 * </p>
+	 */
+	public JashBuilder multiplexOutput() {
+		this.multiplexOutput = true;
+		return this;
+	}
+
+	/**
+	 * Keep the first {@code headBytes} and the last {@code tailBytes} of stdout and
+	 * stderr as they are read, dropping the bytes in between.
+	 * <p>
+	 * The output is read from the start and captured in buffers allocated once, so
+	 * the memory used does not depend on how much the process prints. It is
+	 * available while the process runs with {@code Jash.tail(int)} and is attached
+	 * to the {@code ProcessException} thrown if the process fails. The output
+	 * still has to be consumed, {@code Jash.join()} does it without keeping it.
+	 * </p>
+	 */
+	public JashBuilder captureOutput(int headBytes, int tailBytes) {
+		if (headBytes < 0 || tailBytes < 0) {
+			throw new IllegalArgumentException("The captured bytes can not be negative");
+		}
+		this.captureOutput = true;
+		this.captureHeadBytes = headBytes;
+		this.captureTailBytes = tailBytes;
+		return this;
+	}
+
+	/**
+	 * Run the pumps that write to the process stdin on the specified
+	 * {@code Executor} instead of {@code PumpExecutor.getDefault()}.
+	 */
+	public JashBuilder pumpExecutor(Executor pumpExecutor) {
+		this.pumpExecutor = PumpExecutor.of(pumpExecutor);
+		return this;
+	}
+
 	/**
 	 * Redirect stdout to stderr.
 	 */
@@ -207,6 +290,10 @@ public class JashBuilder {
 
 	/**
 	 * Redirect stderr to stdout.
+	 * <p>
+	 * The operating system merges stderr into the stdout pipe, so the output keeps
+	 * the order it was written in.
+	 * </p>
 	 */
 	public JashBuilder redirectStderrToStdout() {
 		this.outputs.put(Jash.STDERR, Jash.STDOUT);
@@ -215,17 +302,95 @@ public class JashBuilder {
 
 	/**
 	 * Do not output stdout.
+	 * <p>
+	 * The operating system discards it, so the process never blocks writing to it.
+	 * </p>
 	 */
 	public JashBuilder noStdout() {
 		this.outputs.remove(Jash.STDOUT);
+		this.stdoutRedirect = DISCARD;
 		return this;
 	}
 
 	/**
 	 * Do not output stderr.
+	 * <p>
+	 * The operating system discards it, so the process never blocks writing to it.
+	 * </p>
 	 */
 	public JashBuilder noStderr() {
 		this.outputs.remove(Jash.STDERR);
+		this.stderrRedirect = DISCARD;
+		return this;
+	}
+
+	/**
+	 * Write stdout to the stdout of the JVM instead of outputting it.
+	 */
+	public JashBuilder inheritStdout() {
+		this.outputs.remove(Jash.STDOUT);
+		this.stdoutRedirect = Redirect.INHERIT;
+		return this;
+	}
+
+	/**
+	 * Write stderr to the stderr of the JVM instead of outputting it.
+	 */
+	public JashBuilder inheritStderr() {
+		this.outputs.remove(Jash.STDERR);
+		this.stderrRedirect = Redirect.INHERIT;
+		return this;
+	}
+
+	/**
+	 * Read stdin from the specified file.
+	 * <p>
+	 * The process reads the file directly, no thread copies it and nothing can be
+	 * written to stdin of the returned {@code Jash}.
+	 * </p>
+	 */
+	public JashBuilder stdinFrom(Path path) {
+		this.stdinRedirect = Redirect.from(path.toFile());
+		return this;
+	}
+
+	/**
+	 * Write stdout to the specified file, replacing it.
+	 * <p>
+	 * The operating system writes to the file directly and stdout of the returned
+	 * {@code Jash} is empty. The exit code and the timeouts are checked as usual.
+	 * </p>
+	 */
+	public JashBuilder stdoutTo(Path path) {
+		this.stdoutRedirect = Redirect.to(path.toFile());
+		return this;
+	}
+
+	/**
+	 * Append stdout to the specified file, as {@code stdoutTo(Path)} does.
+	 */
+	public JashBuilder appendStdoutTo(Path path) {
+		this.stdoutRedirect = Redirect.appendTo(path.toFile());
+		return this;
+	}
+
+	/**
+	 * Write stderr to the specified file, replacing it.
+	 * <p>
+	 * The operating system writes to the file directly and stderr of the returned
+	 * {@code Jash} is empty. The exit code and the timeouts are checked as usual.
+	 * </p>
+	 */
+	public JashBuilder stderrTo(Path path) {
+		this.stderrRedirect = Redirect.to(path.toFile());
+		return this;
+	}
+
+	/**
+	 * Append stderr to the specified file, as {@code stderrTo(Path)} does.
+	 */
+	public JashBuilder appendStderrTo(Path path) {
+		this.stderrRedirect = Redirect.appendTo(path.toFile());
 		return this;
 	}
 
@@ -245,17 +410,72 @@ public class JashBuilder {
 		return withShell();
 	}
 
+	/**
+	 * Pipe the stdout of this command to the stdin of the specified command.
+	 * <p>
+	 * Nothing is started until {@code start()} is called on the returned builder,
+	 * which then starts the whole pipeline. See {@code pipe(JashBuilder)}.
+	 * </p>
+	 */
+	public JashBuilder pipe(String command, String... args) {
+		return pipe(new JashBuilder(command).args(args));
+	}
+
+	/**
+	 * Pipe the stdout of this command to the stdin of the specified shell command.
+	 */
+	public JashBuilder pipe$(String cmd) {
+		return pipeShell(cmd);
+	}
+
+	/**
+	 * Pipe the stdout of this command to the stdin of the specified shell command.
+	 */
+	public JashBuilder pipeShell(String s) {
+		JashBuilder next = new JashBuilder(s).withShell();
+		next.shell = shell;
+		return pipe(next);
+	}
+
+	/**
+	 * Pipe the stdout of this command to the stdin of the specified command.
+	 * <p>
+	 * Nothing is started until {@code start()} is called on the returned builder.
+	 * When all the commands are plain processes they are then started with
+	 * {@code ProcessBuilder.startPipeline} and the operating system connects them
+	 * directly, the output of the intermediate commands never goes through the
+	 * JVM. On Java 8 each command is started on its own and piped the same way as
+	 * {@code Jash.pipe(Jash)}.
+	 * </p>
+	 * <p>
+	 * The returned {@code Jash} wraps the last command, closing it waits for the
+	 * previous commands to exit and throws if any of them failed.
+	 * </p>
+	 */
+	public JashBuilder pipe(JashBuilder next) {
+		JashBuilder first = next;
+		while (first.upstream != null) {
+			first = first.upstream;
+		}
+		for (JashBuilder stage = this; stage != null; stage = stage.upstream) {
+			if (stage == first) {
+				throw new IllegalArgumentException("Cannot pipe a command to itself");
+			}
+		}
+		first.upstream = this;
+		return next;
+	}
+
 	/**
 	 * Start the process (in background) and return a {@code Jash} instance wrapping
 	 * the running process.
 	 */
 	public Jash start() {
+		if (upstream != null) {
+			return startPipeline();
+		}
 		try {
-			CustomProcessBuilder<?> builder = processBuilderSupplier.get();
-			if (workPath != null) {
-				builder.directory(workPath);
-			}
-			builder.setEnvironment(environment);
+			CustomProcessBuilder<?> builder = processBuilder();
 			CustomProcess process = builder.start();
 			Instant start = Instant.now();
 			return new Jash(this, builder, process, start);
@@ -264,6 +484,57 @@ public class JashBuilder {
 		}
 	}
 
+	private CustomProcessBuilder<?> processBuilder() {
+		CustomProcessBuilder<?> builder = processBuilderSupplier.get();
+		if (workPath != null) {
+			builder.directory(workPath);
+		}
+		builder.setEnvironment(environment);
+		return builder;
+	}
+
+	private Jash startPipeline() {
+		List<JashBuilder> stages = new ArrayList<>();
+		for (JashBuilder stage = this; stage != null; stage = stage.upstream) {
+			if (stage != this && stage.stdoutRedirect != null) {
+				throw new IllegalArgumentException("Cannot pipe command " + stage.command
+						+ " since its stdout is redirected");
+			}
+			if (stage.upstream != null && stage.stdinRedirect != null) {
+				throw new IllegalArgumentException("Cannot pipe to command " + stage.command
+						+ " since its stdin is redirected");
+			}
+			stages.add(0, stage);
+		}
+		List<CustomProcessBuilder<?>> builders = stages	.stream()
+														.map(JashBuilder::processBuilder)
+														.collect(Collectors.toList());
+		try {
+			List<CustomProcess> processes = JdkProcessBuilder.startPipeline(builders);
+			if (processes == null) {
+				Jash jash = null;
+				for (int index = 0; index < stages.size(); index++) {
+					Jash next = new Jash(stages.get(index), builders.get(index), builders.get(index).start(),
+							Instant.now());
+					jash = jash == null ? next : jash.pipe(next);
+				}
+				return jash;
+			}
+			Instant start = Instant.now();
+			Jash jash = null;
+			for (int index = 0; index < stages.size(); index++) {
+				Jash next = new Jash(stages.get(index), builders.get(index), processes.get(index), start);
+				if (jash != null) {
+					next.pipedFrom(jash);
+				}
+				jash = next;
+			}
+			return jash;
+		} catch (IOException ex) {
+			throw new RuntimeException(ex);
+		}
+	}
+
 	public JashBuilder withShell() {
 		asShell = true;
 		return this;
@@ -277,4 +548,26 @@ public class JashBuilder {
 		this.exitCodePredicate = (code) -> true;
 		return this;
 	}
+
+	/**
+	 * Return true if stderr is output as stdout and both go to the same place, so
+	 * the operating system can merge them.
+	 */
+	boolean redirectErrorStream() {
+		return Integer.valueOf(Jash.STDOUT).equals(outputs.get(Jash.STDERR))
+				&& Integer.valueOf(Jash.STDOUT).equals(outputs.get(Jash.STDOUT))
+				&& stderrRedirect == null;
+	}
+
+	/**
+	 * {@code Redirect.DISCARD} is only available since Java 9, on Java 8 the output
+	 * is written to the null device the same way.
+	 */
+	private static Redirect discardRedirect() {
+		try {
+			return (Redirect) Redirect.class.getField("DISCARD").get(null);
+		} catch (ReflectiveOperationException | RuntimeException ex) {
+			return Redirect.to(new File(System.getProperty("os.name").startsWith("Windows") ? "NUL" : "/dev/null"));
+		}
+	}
 }
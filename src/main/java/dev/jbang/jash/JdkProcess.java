@@ -22,14 +22,24 @@ package dev.jbang.jash;
 
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 public class JdkProcess extends CustomProcess {
 
+	private static final Method PID = processMethod("pid");
+	private static final Method ON_EXIT = processMethod("onExit");
+	private static final long EXIT_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
 	private final JdkProcessBuilder processBuilder;
 	private final Process process;
+	private CompletableFuture<Void> exit;
+	private volatile boolean destroyed;
 
 	JdkProcess(JdkProcessBuilder processBuilder, Process process) {
 		this.processBuilder = processBuilder;
@@ -73,19 +83,94 @@ public class JdkProcess extends CustomProcess {
 
 	@Override
 	public Process destroyForcibly() {
+		destroyed = true;
 		return process.destroyForcibly();
 	}
 
+	@Override
+	boolean isDestroyed() {
+		return destroyed;
+	}
+
 	@Override
 	public int waitFor() throws InterruptedException {
 		return process.waitFor();
 	}
 
+	@Override
+	public boolean waitFor(long timeout, TimeUnit unit) throws InterruptedException {
+		return process.waitFor(timeout, unit);
+	}
+
 	@Override
 	public boolean isAlive() {
 		return process.isAlive();
 	}
 
+	/**
+	 * Look up a method of {@code Process} added after Java 8.
+	 *
+	 * @return the method or {@code null} on Java 8
+	 */
+	private static Method processMethod(String name) {
+		try {
+			return Process.class.getMethod(name);
+		} catch (NoSuchMethodException | RuntimeException ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * {@code Process.pid()} is only available since Java 9, on Java 8 the pid is
+	 * read from the private field of the Unix implementation.
+	 */
+	@Override
+	public long pid() {
+		if (PID != null) {
+			try {
+				return (Long) PID.invoke(process);
+			} catch (ReflectiveOperationException | RuntimeException ex) {
+				return -1;
+			}
+		}
+		try {
+			Field pid = process.getClass().getDeclaredField("pid");
+			pid.setAccessible(true);
+			return pid.getInt(process);
+		} catch (ReflectiveOperationException | RuntimeException ex) {
+			return -1;
+		}
+	}
+
+	/**
+	 * {@code Process.onExit()} is only available since Java 9, on Java 8 the
+	 * {@code Watchdog} polls the process instead of parking a thread on it.
+	 */
+	@Override
+	synchronized CompletableFuture<Void> onExit() {
+		if (exit != null) {
+			return exit;
+		}
+		if (ON_EXIT != null) {
+			try {
+				exit = ((CompletableFuture<?>) ON_EXIT.invoke(process)).thenApply(ignored -> null);
+				return exit;
+			} catch (ReflectiveOperationException | RuntimeException ex) {
+				// fall back to polling
+			}
+		}
+		final CompletableFuture<Void> polledExit = new CompletableFuture<>();
+		Watchdog.INSTANCE.schedule(System.nanoTime(), deadline -> {
+			if (process.isAlive()) {
+				deadline.reschedule(System.nanoTime() + EXIT_POLL_NANOS);
+			} else {
+				polledExit.complete(null);
+			}
+		});
+		exit = polledExit;
+		return exit;
+	}
+
 	public static Process asProcess(Jash process) {
 		if (process.getProcess() instanceof JdkProcess) {
 			return JdkProcess.class.cast(process.getProcess()).process;
@@ -22,15 +22,20 @@ package dev.jbang.jash;
 
 import java.io.IOException;
 import java.lang.ProcessBuilder.Redirect;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 class JdkProcessBuilder extends CustomProcessBuilder<JdkProcess> {
 
+	private static final Method START_PIPELINE = startPipelineMethod();
+
 	private final ProcessBuilder processBuilder;
 
 	JdkProcessBuilder(JashBuilder builder) {
@@ -39,9 +44,13 @@ class JdkProcessBuilder extends CustomProcessBuilder<JdkProcess> {
 						builder.asShell ? Stream.of(builder.getShell(), "-c", builder.shellPrefix + builder.command)
 								: Stream.of(builder.command),
 						builder.args.stream()).toArray(String[]::new))
-																		.redirectError(Redirect.PIPE)
-																		.redirectInput(Redirect.PIPE)
-																		.redirectOutput(Redirect.PIPE);
+																		.redirectError(builder.stderrRedirect == null ? Redirect.PIPE
+																				: builder.stderrRedirect)
+																		.redirectErrorStream(builder.redirectErrorStream())
+																		.redirectInput(builder.stdinRedirect == null ? Redirect.PIPE
+																				: builder.stdinRedirect)
+																		.redirectOutput(builder.stdoutRedirect == null ? Redirect.PIPE
+																				: builder.stdoutRedirect);
 	}
 
 	@Override
@@ -75,4 +84,59 @@ class JdkProcessBuilder extends CustomProcessBuilder<JdkProcess> {
 		return new JdkProcess(this, processBuilder.start());
 	}
 
+	@Override
+	boolean isPiped(int fd) {
+		if (fd == Jash.STDERR && processBuilder.redirectErrorStream()) {
+			return false;
+		}
+		Redirect redirect = fd == Jash.STDOUT ? processBuilder.redirectOutput() : processBuilder.redirectError();
+		return redirect.type() == Redirect.Type.PIPE;
+	}
+
+	/**
+	 * Start the builders with {@code ProcessBuilder.startPipeline}, only available
+	 * since Java 9, so the operating system connects the stdout of each process to
+	 * the stdin of the next one.
+	 *
+	 * @return the started processes or {@code null} if any builder is not a
+	 *         {@code JdkProcessBuilder} or on Java 8
+	 */
+	static List<CustomProcess> startPipeline(List<CustomProcessBuilder<?>> builders) throws IOException {
+		if (START_PIPELINE == null || !builders.stream().allMatch(JdkProcessBuilder.class::isInstance)) {
+			return null;
+		}
+		List<JdkProcessBuilder> jdkBuilders = builders	.stream()
+														.map(JdkProcessBuilder.class::cast)
+														.collect(Collectors.toList());
+		final List<?> processes;
+		try {
+			processes = (List<?>) START_PIPELINE.invoke(null, jdkBuilders	.stream()
+																			.map(builder -> builder.processBuilder)
+																			.collect(Collectors.toList()));
+		} catch (IllegalAccessException ex) {
+			return null;
+		} catch (InvocationTargetException ex) {
+			if (ex.getCause() instanceof IOException) {
+				throw (IOException) ex.getCause();
+			}
+			if (ex.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) ex.getCause();
+			}
+			throw new IOException(ex.getCause());
+		}
+		List<CustomProcess> started = new ArrayList<>();
+		for (int index = 0; index < processes.size(); index++) {
+			started.add(new JdkProcess(jdkBuilders.get(index), (Process) processes.get(index)));
+		}
+		return started;
+	}
+
+	private static Method startPipelineMethod() {
+		try {
+			return ProcessBuilder.class.getMethod("startPipeline", List.class);
+		} catch (NoSuchMethodException | RuntimeException ex) {
+			return null;
+		}
+	}
+
 }
@@ -0,0 +1,49 @@
+/*-
+ *  § 
+ * jash
+ *    
+ * Copyright (C) 2020 OnGres, Inc.
+ *    
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * § §
+ */
+
+package dev.jbang.jash;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Matches a {@code GrepPattern} against lines of the process output. An
+ * instance is used by a single reader, so it may keep state between lines.
+ */
+interface LineMatcher {
+
+	/**
+	 * Look for the first match in a range of the output that may span more than
+	 * one line, used to skip the lines before it without splitting them.
+	 *
+	 * @return the index of a byte of the first match, -1 if there is none or
+	 *         {@code from} if the matcher can not search across lines
+	 */
+	int find(ByteBuffer words, int from, int to);
+
+	/**
+	 * Return true if the line contains at least one match.
+	 */
+	boolean matches(OutputLineView line);
+
+	/**
+	 * Pass each match in the line to the handler.
+	 */
+	void forEachMatch(OutputLineView line, MatchHandler handler);
+}
@@ -26,15 +26,42 @@ import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
 import java.util.stream.Stream;
 
+/**
+ * An {@code InputStream} over a stream of records, each one followed by a
+ * delimiter.
+ * <p>
+ * Records and delimiter are read in place one after the other, without
+ * building a new {@code String} or array that contains both.
+ * </p>
+ */
 class LineStreamInputStream extends InputStream {
-	private final Stream<String> stream;
-	private final Iterator<String> iterator;
+	private static final byte[] NEWLINE_DELIMITER = Jash.NEWLINE_DELIMITER.getBytes(StandardCharsets.UTF_8);
+
+	private final Stream<?> stream;
+	private final Iterator<byte[]> iterator;
+	private final byte[] delimiter;
 	private byte[] buffer = null;
 	private int bufferIndex = 0;
+	private boolean delimiterPending = false;
 
 	public LineStreamInputStream(Stream<String> stream) {
+		this(stream, NEWLINE_DELIMITER);
+	}
+
+	public LineStreamInputStream(Stream<String> stream, byte[] delimiter) {
+		this(stream, stream	.map(line -> line.getBytes(StandardCharsets.UTF_8))
+							.iterator(),
+				delimiter);
+	}
+
+	private LineStreamInputStream(Stream<?> stream, Iterator<byte[]> iterator, byte[] delimiter) {
 		this.stream = stream;
-		this.iterator = stream.iterator();
+		this.iterator = iterator;
+		this.delimiter = delimiter;
+	}
+
+	static LineStreamInputStream ofBytes(Stream<byte[]> stream, byte[] delimiter) {
+		return new LineStreamInputStream(stream, stream.iterator(), delimiter);
 	}
 
 	@Override
@@ -43,10 +70,15 @@ class LineStreamInputStream extends InputStream {
 			return -1;
 		}
 
-		final int size = Math.min(len, this.buffer.length - this.bufferIndex);
-		System.arraycopy(this.buffer, this.bufferIndex, buffer, off, size);
-		this.bufferIndex += size;
-		return size;
+		int read = 0;
+		do {
+			final int size = Math.min(len - read, this.buffer.length - this.bufferIndex);
+			System.arraycopy(this.buffer, this.bufferIndex, buffer, off + read, size);
+			this.bufferIndex += size;
+			read += size;
+			// the delimiter goes together with its record without waiting for the next
+		} while (read < len && delimiterPending && fill() > 0);
+		return read;
 	}
 
 	@Override
@@ -70,23 +102,28 @@ class LineStreamInputStream extends InputStream {
 
 	private int fill() {
 		while (buffer == null || bufferIndex >= buffer.length) {
-			if (iterator.hasNext()) {
-				buffer = (iterator.next() + Jash.NEWLINE_DELIMITER)
-																	.getBytes(StandardCharsets.UTF_8);
-				bufferIndex = 0;
-				return buffer.length;
+			if (delimiterPending) {
+				buffer = delimiter;
+				delimiterPending = false;
+			} else if (iterator.hasNext()) {
+				buffer = iterator.next();
+				delimiterPending = true;
 			} else {
 				return -1;
 			}
+			bufferIndex = 0;
 		}
 		return buffer.length - bufferIndex;
 	}
 
 	@Override
 	public int available() throws IOException {
-		if (buffer != null) {
+		if (buffer != null && bufferIndex < buffer.length) {
 			return buffer.length - bufferIndex;
 		}
+		if (delimiterPending) {
+			return delimiter.length;
+		}
 		return iterator.hasNext() ? 1 : 0;
 	}
 
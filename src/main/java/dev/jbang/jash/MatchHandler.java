@@ -0,0 +1,44 @@
+/*-
+ *  § 
+ * jash
+ *    
+ * Copyright (C) 2020 OnGres, Inc.
+ *    
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * § §
+ */
+
+package dev.jbang.jash;
+
+/**
+ * Callback receiving the matches of a {@code GrepPattern} in the process
+ * output.
+ *
+ * @see Jash#forEachMatch(GrepPattern, MatchHandler)
+ */
+@FunctionalInterface
+public interface MatchHandler {
+
+	/**
+	 * Called for each match found in the process output.
+	 *
+	 * @param fd        the file descriptor the match was read from
+	 * @param offset    the offset of the first byte of the match from the start of
+	 *                  the output of the fd
+	 * @param patternId the index of the literal that matched, or 0 for a regular
+	 *                  expression
+	 * @param line      a view of the line containing the match that is reused for
+	 *                  the next one, it is only valid until this method returns
+	 */
+	void onMatch(int fd, long offset, int patternId, OutputLineView line);
+}
@@ -0,0 +1,90 @@
+/*-
+ *  § 
+ * jash
+ *    
+ * Copyright (C) 2020 OnGres, Inc.
+ *    
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * § §
+ */
+
+package dev.jbang.jash;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+
+/**
+ * Iterates over read-only views of the process output data without copying it.
+ * <p>
+ * The buffer holding each view is given back to the pool as soon as the next
+ * view is requested or the iterator is closed.
+ * </p>
+ */
+class OutputBufferIterator implements Iterator<ByteBuffer>, Closeable {
+
+	private final ProcessOutputDataIterator processOutputIterator;
+	private final Predicate<OutputData> filter;
+	private OutputData current = null;
+	private OutputData next = null;
+
+	OutputBufferIterator(ProcessOutputDataIterator processOutputIterator, Predicate<OutputData> filter) {
+		this.processOutputIterator = processOutputIterator;
+		this.filter = filter;
+	}
+
+	@Override
+	public boolean hasNext() {
+		releaseCurrent();
+		while (next == null && processOutputIterator.hasNext()) {
+			OutputData data = processOutputIterator.next();
+			if (filter.test(data)) {
+				next = data;
+			} else {
+				data.release();
+			}
+		}
+		return next != null;
+	}
+
+	@Override
+	public ByteBuffer next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		current = next;
+		next = null;
+		return current.buffer();
+	}
+
+	private void releaseCurrent() {
+		if (current != null) {
+			current.release();
+			current = null;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		releaseCurrent();
+		if (next != null) {
+			next.release();
+			next = null;
+		}
+		processOutputIterator.close();
+	}
+}
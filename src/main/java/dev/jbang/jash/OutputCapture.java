@@ -0,0 +1,115 @@
+/*-
+ *  § 
+ * jash
+ *    
+ * Copyright (C) 2020 OnGres, Inc.
+ *    
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * § §
+ */
+
+package dev.jbang.jash;
+
+import java.nio.charset.Charset;
+
+/**
+ * Keeps the first and the last bytes of each output fd as they are read, in
+ * buffers allocated once, so that the memory used does not depend on how much
+ * the process prints.
+ */
+class OutputCapture {
+
+	private final Ring[] rings;
+	private final Charset charset;
+
+	OutputCapture(int headBytes, int tailBytes, Charset charset) {
+		this.rings = new Ring[] { null, new Ring(headBytes, tailBytes), new Ring(headBytes, tailBytes) };
+		this.charset = charset;
+	}
+
+	void append(int fd, byte[] bytes, int offset, int length) {
+		rings[fd].append(bytes, offset, length);
+	}
+
+	OutputTail snapshot() {
+		return new OutputTail(rings[Jash.STDOUT].snapshot(), rings[Jash.STDERR].snapshot(), charset);
+	}
+
+	/**
+	 * A fixed head buffer filled once followed by a ring buffer overwritten with
+	 * the most recent bytes.
+	 */
+	private static class Ring {
+		private final byte[] head;
+		private final byte[] tail;
+		private int headLength = 0;
+		private long tailWritten = 0;
+		// tells if the stored tail starts a line
+		private byte lastDropped = '\n';
+
+		Ring(int headBytes, int tailBytes) {
+			this.head = new byte[headBytes];
+			this.tail = new byte[tailBytes];
+		}
+
+		synchronized void append(byte[] bytes, int offset, int length) {
+			final int toHead = Math.min(length, head.length - headLength);
+			System.arraycopy(bytes, offset, head, headLength, toHead);
+			headLength += toHead;
+			offset += toHead;
+			length -= toHead;
+			if (length >= tail.length) {
+				// only the last bytes fit, the others and all the stored ones are dropped
+				final int skipped = length - tail.length;
+				if (skipped > 0) {
+					lastDropped = bytes[offset + skipped - 1];
+				} else if (tailWritten > 0 && length > 0) {
+					lastDropped = tail[(int) ((tailWritten - 1) % tail.length)];
+				}
+				tailWritten += skipped;
+				offset += skipped;
+				length = tail.length;
+			} else {
+				final int evicted = (int) Math.max(0, Math.min(tailWritten, tail.length) + length - tail.length);
+				if (evicted > 0) {
+					// the oldest stored bytes are overwritten, the newest of them was dropped last
+					lastDropped = tail[(int) ((tailWritten - Math.min(tailWritten, tail.length) + evicted - 1)
+							% tail.length)];
+				}
+			}
+			if (length == 0) {
+				return;
+			}
+			final int position = (int) (tailWritten % tail.length);
+			final int first = Math.min(length, tail.length - position);
+			System.arraycopy(bytes, offset, tail, position, first);
+			System.arraycopy(bytes, offset + first, tail, 0, length - first);
+			tailWritten += length;
+		}
+
+		synchronized OutputTail.Fd snapshot() {
+			final int stored = (int) Math.min(tailWritten, tail.length);
+			final byte[] lastBytes = new byte[stored];
+			if (stored > 0) {
+				final int start = (int) ((tailWritten - stored) % tail.length);
+				final int first = Math.min(stored, tail.length - start);
+				System.arraycopy(tail, start, lastBytes, 0, first);
+				System.arraycopy(tail, 0, lastBytes, first, stored - first);
+			}
+			final byte[] firstBytes = new byte[headLength];
+			System.arraycopy(head, 0, firstBytes, 0, headLength);
+			return new OutputTail.Fd(firstBytes, lastBytes, tailWritten - stored,
+					tailWritten > stored && lastDropped != '\n');
+		}
+	}
+}
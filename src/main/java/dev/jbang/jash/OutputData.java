@@ -20,24 +20,137 @@
 
 package dev.jbang.jash;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
+/**
+ * A chunk of data read from the process output.
+ * <p>
+ * The data may be held in a pooled buffer, once done with it call
+ * {@link #release()} to give the buffer back to the pool. After releasing it
+ * the data can not be accessed anymore. Not releasing it is safe, the buffer is
+ * just left to the garbage collector.
+ * </p>
+ */
 public class OutputData {
 
 	private final Integer fd;
-	private final byte[] bytes;
+	private final int length;
+	private final boolean pooled;
+	private final long sequence;
+	private final long arrivalNanos;
+	private byte[] buffer;
 
 	OutputData(Integer fd, byte[] bytes) {
+		this(fd, bytes, bytes.length, false, 0, 0);
+	}
+
+	OutputData(Integer fd, byte[] buffer, int length, boolean pooled, long sequence, long arrivalNanos) {
 		this.fd = fd;
-		this.bytes = bytes;
+		this.buffer = buffer;
+		this.length = length;
+		this.pooled = pooled;
+		this.sequence = sequence;
+		this.arrivalNanos = arrivalNanos;
 	}
 
 	public Integer fd() {
 		return fd;
 	}
 
+	/**
+	 * Return the position of this chunk in the order the output of the process was
+	 * read, counted across all its fds and starting at 1.
+	 */
+	public long sequence() {
+		return sequence;
+	}
+
+	/**
+	 * Return the value of {@code System.nanoTime()} when this chunk was read from
+	 * the process.
+	 */
+	public long arrivalNanos() {
+		return arrivalNanos;
+	}
+
+	/**
+	 * Return the data as a byte array, that is a copy when the data is held in a
+	 * pooled buffer.
+	 */
 	public byte[] bytes() {
-		return bytes;
+		final byte[] buffer = array();
+		if (!pooled && buffer.length == length) {
+			return buffer;
+		}
+		return Arrays.copyOf(buffer, length);
+	}
+
+	/**
+	 * Return the number of bytes.
+	 */
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * Return a read-only view of the data without copying it.
+	 * <p>
+	 * The view is backed by the same buffer as this {@code OutputData} and stays
+	 * valid until {@link #release()} is called, after that the buffer may be
+	 * reused to hold other data.
+	 * </p>
+	 */
+	public ByteBuffer buffer() {
+		return ByteBuffer	.wrap(array(), 0, length)
+							.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Write the data to an {@code OutputStream} without copying it.
+	 */
+	public void writeTo(OutputStream outputStream) throws IOException {
+		outputStream.write(array(), 0, length);
+	}
+
+	/**
+	 * Give the buffer holding the data back to the pool.
+	 */
+	public void release() {
+		if (pooled && buffer != null) {
+			BufferPool.INSTANCE.release(buffer);
+		}
+		buffer = null;
+	}
+
+	/**
+	 * Return true if {@link #release()} was called.
+	 */
+	public boolean isReleased() {
+		return buffer == null;
+	}
+
+	/**
+	 * The same data labeled with another fd.
+	 */
+	OutputData withFd(Integer fd) {
+		if (this.fd.equals(fd)) {
+			return this;
+		}
+		return new OutputData(fd, array(), length, pooled, sequence, arrivalNanos);
+	}
+
+	/**
+	 * The underlying buffer, only the first {@code length()} bytes are valid.
+	 */
+	byte[] array() {
+		if (buffer == null) {
+			throw new IllegalStateException("Output data already released");
+		}
+		return buffer;
 	}
 
 	public boolean isStdout() {
@@ -51,7 +164,7 @@ public class OutputData {
 	@Override
 	public String toString() {
 		try {
-			return fd + ":" + new String(bytes, StandardCharsets.UTF_8);
+			return fd + ":" + new String(array(), 0, length, StandardCharsets.UTF_8);
 		} catch (Exception ex) {
 			return fd + ":" + ex.getMessage();
 		}
@@ -20,21 +20,102 @@
 
 package dev.jbang.jash;
 
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A line of the process output.
+ * <p>
+ * The lines read to be streamed as {@code String} are kept as bytes and only
+ * decoded by {@link #line()}, the ones handed out as {@code OutputLine} are
+ * already decoded.
+ * </p>
+ */
 public class OutputLine {
 	public final Integer fd;
 	public final String line;
+	private final byte[] bytes;
+	private final int offset;
+	private final int length;
+	private final Charset charset;
+	private final long sequence;
+	private final long arrivalNanos;
 
 	OutputLine(Integer fd, String line) {
+		this(fd, line, null, 0, 0);
+	}
+
+	OutputLine(Integer fd, String line, Charset charset, long sequence, long arrivalNanos) {
 		this.fd = fd;
 		this.line = line;
+		this.bytes = null;
+		this.offset = 0;
+		this.length = 0;
+		this.charset = charset;
+		this.sequence = sequence;
+		this.arrivalNanos = arrivalNanos;
+	}
+
+	OutputLine(Integer fd, byte[] bytes, int offset, int length, Charset charset, long sequence,
+			long arrivalNanos) {
+		this.fd = fd;
+		this.line = null;
+		this.bytes = bytes;
+		this.offset = offset;
+		this.length = length;
+		this.charset = charset;
+		this.sequence = sequence;
+		this.arrivalNanos = arrivalNanos;
 	}
 
 	public Integer fd() {
 		return fd;
 	}
 
+	/**
+	 * Return the sequence number of the chunk of output that completed this line,
+	 * lines completed by the same chunk share it.
+	 *
+	 * @see OutputData#sequence()
+	 */
+	public long sequence() {
+		return sequence;
+	}
+
+	/**
+	 * Return the value of {@code System.nanoTime()} when the chunk of output that
+	 * completed this line was read from the process.
+	 */
+	public long arrivalNanos() {
+		return arrivalNanos;
+	}
+
 	public String line() {
-		return line;
+		if (line != null) {
+			return line;
+		}
+		// ASCII is a subset of ISO-8859-1 that decodes without a lookup
+		return new String(bytes, offset, length,
+				ByteScanner.isAscii(bytes, offset, offset + length) ? StandardCharsets.ISO_8859_1 : charset);
+	}
+
+	/**
+	 * Return this line with the {@code line} field set, decoding it if it is
+	 * still kept as bytes.
+	 */
+	OutputLine decoded() {
+		if (line != null) {
+			return this;
+		}
+		return new OutputLine(fd, line(), charset, sequence, arrivalNanos);
+	}
+
+	byte[] bytes() {
+		if (bytes == null) {
+			return line.getBytes(charset == null ? StandardCharsets.UTF_8 : charset);
+		}
+		return Arrays.copyOfRange(bytes, offset, offset + length);
 	}
 
 	public boolean isStdout() {
@@ -47,6 +128,6 @@ public class OutputLine {
 
 	@Override
 	public String toString() {
-		return fd + ":" + line;
+		return fd + ":" + line();
 	}
 }
@@ -0,0 +1,303 @@
+/*-
+ *  § 
+ * jash
+ *    
+ * Copyright (C) 2020 OnGres, Inc.
+ *    
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * § §
+ */
+
+package dev.jbang.jash;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Splits the data of an {@code OutputPipe} in lines working on bytes.
+ * <p>
+ * Lines are terminated the same way as {@code BufferedReader.readLine()} does:
+ * by a line feed, a carriage return or a carriage return followed by a line
+ * feed. Lines that fit in a single chunk share the chunk array, only lines
+ * spanning more than one chunk are copied. Decoding to {@code String} is left
+ * to {@code OutputLine.line()}.
+ * </p>
+ * <p>
+ * When a delimiter is specified the data is split in records terminated by
+ * that sequence of bytes instead, a delimiter split across chunks is found
+ * by matching the tail of the pending bytes against the start of the next
+ * chunk.
+ * </p>
+ * <p>
+ * When a prefilter is specified only the lines that may contain one of its
+ * matches are returned, the chunk is searched for the first match before
+ * looking for line breaks and the lines before it are skipped.
+ * </p>
+ * <p>
+ * When the lines are only used through a reused {@code OutputLineView} the
+ * chunks are released as soon as they are consumed, and the pending bytes of a
+ * line spanning more than one chunk are not copied either.
+ * </p>
+ */
+class OutputLineSplitter {
+
+	private static final byte LF = '\n';
+	private static final byte CR = '\r';
+
+	private final Integer fd;
+	private final OutputPipe pipe;
+	private final Charset charset;
+	private final byte[] delimiter;
+	private final boolean releaseChunks;
+	private final LineMatcher prefilter;
+	private OutputData chunk = null;
+	private long chunkSequence = 0;
+	private long chunkNanos = 0;
+	private byte[] segment = null;
+	private ByteBuffer words = null;
+	private long segmentStart = 0;
+	private int position = 0;
+	private int limit = 0;
+	private byte[] pending = null;
+	private int pendingLength = 0;
+	private long pendingStart = 0;
+	private int pendingScanned = 0;
+	private boolean skipLF = false;
+	private byte[] lineBytes = null;
+	private int lineOffset = 0;
+	private int lineLength = 0;
+	private long lineStart = 0;
+
+	OutputLineSplitter(Integer fd, OutputPipe pipe, Charset charset, byte[] delimiter,
+			boolean releaseChunks, LineMatcher prefilter) {
+		this.fd = fd;
+		this.pipe = pipe;
+		this.charset = charset;
+		this.delimiter = delimiter;
+		this.releaseChunks = releaseChunks;
+		this.prefilter = prefilter;
+	}
+
+	OutputPipe pipe() {
+		return pipe;
+	}
+
+	/**
+	 * Look for the next line without blocking.
+	 *
+	 * @param finished true if no more data will be available from the pipe, so
+	 *                 that the last line is returned even if not terminated
+	 * @return true if a line was found, it can then be retrieved with
+	 *         {@link #line()} or {@link #fill(OutputLineView)}
+	 */
+	boolean advance(boolean finished) {
+		while (true) {
+			if (position >= limit) {
+				if (releaseChunks && chunk != null) {
+					chunk.release();
+				}
+				chunk = pipe.take();
+				if (chunk == null) {
+					return finished && remaining();
+				}
+				segmentStart += limit;
+				chunkSequence = chunk.sequence();
+				chunkNanos = chunk.arrivalNanos();
+				segment = chunk.array();
+				words = ByteScanner.wrap(segment);
+				position = 0;
+				limit = chunk.length();
+			}
+			if (delimiter != null) {
+				if (advanceRecord()) {
+					return true;
+				}
+				continue;
+			}
+			if (skipLF) {
+				skipLF = false;
+				if (segment[position] == LF) {
+					position++;
+					continue;
+				}
+			}
+			if (prefilter != null && pendingLength == 0) {
+				// lines before the one with the first match are skipped without splitting
+				final int match = prefilter.find(words, position, limit);
+				final int lineBreak = ByteScanner.lastIndexOfLineBreak(words, position, match < 0 ? limit : match);
+				if (lineBreak >= 0) {
+					skipLF = segment[lineBreak] == CR;
+					position = lineBreak + 1;
+					continue;
+				}
+			}
+			final int index = ByteScanner.indexOfLineBreak(words, position, limit);
+			if (index >= 0) {
+				skipLF = segment[index] == CR;
+				found(index);
+				position = index + 1;
+				return true;
+			}
+			append(position, limit);
+			position = limit;
+		}
+	}
+
+	/**
+	 * Look for the delimiter in the current chunk, starting with the candidates
+	 * that begin in the pending bytes.
+	 */
+	private boolean advanceRecord() {
+		for (; pendingScanned < pendingLength; pendingScanned++) {
+			final int match = matchPending(pendingScanned);
+			if (match < 0) {
+				// the chunk ends in the middle of the delimiter
+				append(position, limit);
+				position = limit;
+				return false;
+			}
+			if (match > 0) {
+				position += delimiter.length - (pendingLength - pendingScanned);
+				lineBytes = pending;
+				lineOffset = 0;
+				lineLength = pendingScanned;
+				lineStart = pendingStart;
+				pendingLength = 0;
+				pendingScanned = 0;
+				return true;
+			}
+		}
+		final int index = indexOfDelimiter(position, limit);
+		if (index >= 0) {
+			found(index);
+			position = index + delimiter.length;
+			return true;
+		}
+		append(position, limit);
+		position = limit;
+		// only the last bytes may still be the start of a delimiter
+		pendingScanned = Math.max(pendingScanned, pendingLength - (delimiter.length - 1));
+		return false;
+	}
+
+	/**
+	 * Match the delimiter starting at the specified index of the pending bytes and
+	 * continuing in the current chunk.
+	 *
+	 * @return 1 if it matches, 0 if it does not and -1 if the chunk ends before
+	 *         the delimiter does
+	 */
+	private int matchPending(int from) {
+		int matched = 0;
+		for (int index = from; index < pendingLength; index++, matched++) {
+			if (pending[index] != delimiter[matched]) {
+				return 0;
+			}
+		}
+		for (int index = position; matched < delimiter.length; index++, matched++) {
+			if (index >= limit) {
+				return -1;
+			}
+			if (segment[index] != delimiter[matched]) {
+				return 0;
+			}
+		}
+		return 1;
+	}
+
+	private int indexOfDelimiter(int from, int to) {
+		final byte first = delimiter[0];
+		if (delimiter.length == 1) {
+			return ByteScanner.indexOf(words, from, to, first);
+		}
+		final int last = to - delimiter.length + 1;
+		for (int index = from; (index = ByteScanner.indexOf(words, index, last, first)) >= 0; index++) {
+			int matched = 1;
+			while (matched < delimiter.length && segment[index + matched] == delimiter[matched]) {
+				matched++;
+			}
+			if (matched == delimiter.length) {
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	private void found(int index) {
+		if (pendingLength == 0) {
+			lineBytes = segment;
+			lineOffset = position;
+			lineLength = index - position;
+			lineStart = segmentStart + position;
+		} else {
+			append(position, index);
+			remaining();
+		}
+	}
+
+	/**
+	 * Return the sequence number of the chunk that completed the line found by the
+	 * last call to {@link #advance(boolean)}.
+	 */
+	long sequence() {
+		return chunkSequence;
+	}
+
+	/**
+	 * Return the line found by the last call to {@link #advance(boolean)}.
+	 */
+	OutputLine line() {
+		if (lineBytes == pending) {
+			// the pending buffer is reused for the next lines
+			return new OutputLine(fd, Arrays.copyOf(pending, lineLength), 0, lineLength, charset, chunkSequence,
+					chunkNanos);
+		}
+		return new OutputLine(fd, lineBytes, lineOffset, lineLength, charset, chunkSequence, chunkNanos);
+	}
+
+	/**
+	 * Fill the view with the line found by the last call to
+	 * {@link #advance(boolean)}.
+	 */
+	void fill(OutputLineView view) {
+		view.set(fd, lineBytes, lineOffset, lineLength, lineStart, chunkSequence, chunkNanos);
+	}
+
+	private void append(int from, int to) {
+		final int length = to - from;
+		if (pendingLength == 0) {
+			pendingStart = segmentStart + from;
+		}
+		if (pending == null) {
+			pending = new byte[Math.max(128, length)];
+		} else if (pendingLength + length > pending.length) {
+			pending = Arrays.copyOf(pending, Math.max(pending.length * 2, pendingLength + length));
+		}
+		System.arraycopy(segment, from, pending, pendingLength, length);
+		pendingLength += length;
+	}
+
+	private boolean remaining() {
+		if (pendingLength == 0) {
+			return false;
+		}
+		lineBytes = pending;
+		lineOffset = 0;
+		lineLength = pendingLength;
+		lineStart = pendingStart;
+		pendingLength = 0;
+		pendingScanned = 0;
+		return true;
+	}
+}
@@ -0,0 +1,228 @@
+/*-
+ *  § 
+ * jash
+ *    
+ * Copyright (C) 2020 OnGres, Inc.
+ *    
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * § §
+ */
+
+package dev.jbang.jash;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A reusable view of a line of the process output.
+ * <p>
+ * The same instance is filled with each line passed to a {@code LineHandler}
+ * so it must not be kept after the handler returns, call {@link #toString()}
+ * to get a copy of the line. The line is kept as bytes, and it is decoded into
+ * a reused buffer only if it is accessed as {@code CharSequence} and is not
+ * plain ASCII.
+ * </p>
+ */
+public class OutputLineView implements CharSequence {
+
+	private final Charset charset;
+	private int fd;
+	private byte[] bytes;
+	private ByteBuffer words;
+	private int offset;
+	private int length;
+	private long streamOffset;
+	private long sequence;
+	private long arrivalNanos;
+	private boolean decoded;
+	private boolean ascii;
+	private CharsetDecoder decoder;
+	private ByteBuffer input;
+	private CharBuffer chars;
+
+	OutputLineView(Charset charset) {
+		this.charset = charset;
+	}
+
+	void set(int fd, byte[] bytes, int offset, int length, long streamOffset, long sequence,
+			long arrivalNanos) {
+		this.fd = fd;
+		this.bytes = bytes;
+		this.offset = offset;
+		this.length = length;
+		this.streamOffset = streamOffset;
+		this.sequence = sequence;
+		this.arrivalNanos = arrivalNanos;
+		this.decoded = false;
+	}
+
+	byte[] array() {
+		return bytes;
+	}
+
+	int offset() {
+		return offset;
+	}
+
+	/**
+	 * Return a little endian view of the array holding the line to scan it with
+	 * {@code ByteScanner}.
+	 */
+	ByteBuffer words() {
+		if (words == null || words.array() != bytes) {
+			words = ByteScanner.wrap(bytes);
+		}
+		return words;
+	}
+
+	/**
+	 * Return the number of bytes encoding the first characters of the line.
+	 */
+	int byteIndex(int charIndex) {
+		decode();
+		if (ascii) {
+			return charIndex;
+		}
+		return chars	.subSequence(0, charIndex)
+						.toString()
+						.getBytes(charset).length;
+	}
+
+	/**
+	 * Return a copy of the line as an {@code OutputLine}.
+	 */
+	OutputLine toOutputLine() {
+		return new OutputLine(fd, toString(), charset, sequence, arrivalNanos);
+	}
+
+	/**
+	 * Return the offset of the first byte of the line from the start of the
+	 * output of its fd.
+	 */
+	public long streamOffset() {
+		return streamOffset;
+	}
+
+	/**
+	 * @see OutputLine#sequence()
+	 */
+	public long sequence() {
+		return sequence;
+	}
+
+	/**
+	 * @see OutputLine#arrivalNanos()
+	 */
+	public long arrivalNanos() {
+		return arrivalNanos;
+	}
+
+	public int fd() {
+		return fd;
+	}
+
+	public boolean isStdout() {
+		return fd == Jash.STDOUT;
+	}
+
+	public boolean isStderr() {
+		return fd == Jash.STDERR;
+	}
+
+	/**
+	 * Return the number of bytes of the line, not including the line terminator.
+	 */
+	public int byteLength() {
+		return length;
+	}
+
+	/**
+	 * Return the byte at the specified index of the line.
+	 */
+	public byte byteAt(int index) {
+		if (index < 0 || index >= length) {
+			throw new IndexOutOfBoundsException(String.valueOf(index));
+		}
+		return bytes[offset + index];
+	}
+
+	/**
+	 * Write the bytes of the line, not including the line terminator, to an
+	 * {@code OutputStream}.
+	 */
+	public void writeTo(OutputStream outputStream) throws IOException {
+		outputStream.write(bytes, offset, length);
+	}
+
+	@Override
+	public int length() {
+		decode();
+		return ascii ? length : chars.remaining();
+	}
+
+	@Override
+	public char charAt(int index) {
+		decode();
+		if (ascii) {
+			return (char) byteAt(index);
+		}
+		return chars.charAt(index);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		return toString().subSequence(start, end);
+	}
+
+	@Override
+	public String toString() {
+		decode();
+		return new String(bytes, offset, length, ascii ? StandardCharsets.ISO_8859_1 : charset);
+	}
+
+	private void decode() {
+		if (decoded) {
+			return;
+		}
+		decoded = true;
+		ascii = ByteScanner.isAscii(words(), offset, offset + length);
+		if (ascii) {
+			return;
+		}
+		if (decoder == null) {
+			decoder = charset	.newDecoder()
+								.onMalformedInput(CodingErrorAction.REPLACE)
+								.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+		// the line is copied to a reused buffer since wrapping the array every time
+		// would allocate
+		if (input == null || input.capacity() < length) {
+			input = ByteBuffer.allocate(Math.max(128, length));
+			chars = CharBuffer.allocate((int) Math.ceil(input.capacity() * (double) decoder.maxCharsPerByte()));
+		}
+		input.clear();
+		input.put(bytes, offset, length);
+		input.flip();
+		chars.clear();
+		decoder.reset();
+		decoder.decode(input, chars, true);
+		decoder.flush(chars);
+		chars.flip();
+	}
+}
@@ -0,0 +1,100 @@
+/*-
+ *  § 
+ * jash
+ *    
+ * Copyright (C) 2020 OnGres, Inc.
+ *    
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * § §
+ */
+
+package dev.jbang.jash;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drains the output pipes of many processes from a few shared threads.
+ * <p>
+ * Process pipes can not be registered in a {@code Selector}, so each thread
+ * polls the pipes assigned to it reading only what is available and backs off
+ * parking when a whole round found nothing. This trades some latency for not
+ * having two threads per running process.
+ * </p>
+ */
+class OutputMultiplexer implements Runnable {
+
+	static final int THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 8);
+
+	private static final WaitStrategy IDLE_STRATEGY = WaitStrategy.backoff(
+			Duration.ofNanos(50_000), Duration.ofMillis(5));
+	private static final OutputMultiplexer[] MULTIPLEXERS = new OutputMultiplexer[THREADS];
+	private static final AtomicInteger NEXT = new AtomicInteger();
+
+	static void register(OutputPipe pipe) {
+		multiplexer(Math.floorMod(NEXT.getAndIncrement(), THREADS)).add(pipe);
+	}
+
+	private static synchronized OutputMultiplexer multiplexer(int index) {
+		if (MULTIPLEXERS[index] == null) {
+			MULTIPLEXERS[index] = new OutputMultiplexer(index);
+		}
+		return MULTIPLEXERS[index];
+	}
+
+	private final ConcurrentLinkedQueue<OutputPipe> pipes = new ConcurrentLinkedQueue<>();
+	private final Thread thread;
+
+	private OutputMultiplexer(int index) {
+		this.thread = new Thread(this, "jash-multiplexer-" + index);
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	private void add(OutputPipe pipe) {
+		pipes.add(pipe);
+		LockSupport.unpark(thread);
+	}
+
+	@Override
+	public void run() {
+		byte[] readBuffer = new byte[OutputPipe.READ_SIZE];
+		int attempt = 0;
+		while (true) {
+			boolean progress = false;
+			for (Iterator<OutputPipe> iterator = pipes.iterator(); iterator.hasNext();) {
+				int value = iterator.next().poll(readBuffer);
+				if (value < 0) {
+					iterator.remove();
+				} else if (value > 0) {
+					progress = true;
+				}
+			}
+			if (progress) {
+				attempt = 0;
+			} else if (pipes.isEmpty()) {
+				attempt = 0;
+				LockSupport.park(this);
+			} else {
+				try {
+					IDLE_STRATEGY.idle(attempt++, Long.MAX_VALUE, null);
+				} catch (InterruptedException ex) {
+					// keep serving the pipes, this thread is never interrupted on purpose
+				}
+			}
+		}
+	}
+}
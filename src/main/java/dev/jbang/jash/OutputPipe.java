@@ -0,0 +1,322 @@
+/*-
+ *  § 
+ * jash
+ *    
+ * Copyright (C) 2020 OnGres, Inc.
+ *    
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * § §
+ */
+
+package dev.jbang.jash;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Bounded handoff buffer between a process output pipe and its readers.
+ * <p>
+ * A drainer blocks reading the pipe and hands off every chunk it gets to this
+ * buffer, readers take whatever is buffered and park on the owning
+ * {@code OutputPipes} until more data or the end of the stream is signaled.
+ * When the buffer is full the drainer stops reading so the process is
+ * throttled the same way an unread pipe would do.
+ * </p>
+ * <p>
+ * Alternatively an {@code OutputMultiplexer} may drain the pipe without
+ * blocking by calling {@link #poll(byte[])}.
+ * </p>
+ */
+class OutputPipe implements Runnable {
+
+	static final int CAPACITY = 64 * 1024;
+	static final int READ_SIZE = 8192;
+
+	private final OutputPipes pipes;
+	private final int fd;
+	private final InputStream source;
+	private final ArrayDeque<OutputData> chunks = new ArrayDeque<>();
+	private int chunkIndex = 0;
+	// written holding the lock, read without it to skip empty pipes cheaply
+	private volatile int size = 0;
+	private boolean eof = false;
+	private boolean writerWaiting = false;
+	// written holding the lock, read without it by the drainer
+	private volatile boolean discarded = false;
+	private long lastDataNanos = System.nanoTime();
+
+	OutputPipe(OutputPipes pipes, int fd, InputStream source) {
+		this.pipes = pipes;
+		this.fd = fd;
+		this.source = source;
+	}
+
+	int fd() {
+		return fd;
+	}
+
+	@Override
+	public void run() {
+		byte[] readBuffer = null;
+		try {
+			readBuffer = BufferPool.INSTANCE.acquire(READ_SIZE);
+			while (true) {
+				int value = source.read(readBuffer);
+				if (value < 0) {
+					break;
+				}
+				if (value > 0 && !accept(readBuffer, value)) {
+					break;
+				}
+			}
+		} catch (IOException ex) {
+			// the pipe is closed together with the process, nothing left to read
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		} finally {
+			if (readBuffer != null) {
+				BufferPool.INSTANCE.release(readBuffer);
+			}
+			markEof();
+		}
+	}
+
+	/**
+	 * Copy what was read in a pooled buffer of the smallest size class that fits
+	 * it, so that small reads do not hold big buffers while queued. The chunk is
+	 * stamped when read, before waiting for room in the buffer.
+	 */
+	private OutputData chunk(byte[] readBuffer, int length) {
+		final long arrivalNanos = System.nanoTime();
+		byte[] buffer = BufferPool.INSTANCE.acquire(length);
+		System.arraycopy(readBuffer, 0, buffer, 0, length);
+		return new OutputData(fd, buffer, length, true, pipes.nextSequence(), arrivalNanos);
+	}
+
+	/**
+	 * Read whatever is available on the pipe without blocking.
+	 * <p>
+	 * Once the process exited everything it wrote is already available (the JDK
+	 * moves any leftover bytes in memory atomically with respect to
+	 * {@code available()}), so no data available after observing the process dead
+	 * means the end of the stream.
+	 * </p>
+	 *
+	 * @return the number of bytes read or -1 if the end of the stream was reached
+	 */
+	int poll(byte[] readBuffer) {
+		try {
+			if (pipes.isClosed()) {
+				markEof();
+				return -1;
+			}
+			if (available() >= CAPACITY) {
+				return 0;
+			}
+			boolean alive = pipes.isProcessAlive();
+			int available = source.available();
+			if (available > 0) {
+				int value = source.read(readBuffer, 0, Math.min(available, readBuffer.length));
+				if (value < 0) {
+					markEof();
+					return -1;
+				}
+				if (value > 0) {
+					accept(readBuffer, value);
+				}
+				return value;
+			}
+			if (!alive) {
+				markEof();
+				return -1;
+			}
+			return 0;
+		} catch (IOException | InterruptedException ex) {
+			markEof();
+			return -1;
+		}
+	}
+
+	private void markEof() {
+		synchronized (pipes.lock) {
+			eof = true;
+			pipes.signal();
+		}
+	}
+
+	/**
+	 * Hand off what was read to the readers, or only record that data arrived if
+	 * the pipe is discarded. Either way it is captured first.
+	 */
+	private boolean accept(byte[] readBuffer, int length) throws InterruptedException {
+		pipes.capture(fd, readBuffer, length);
+		if (discarded) {
+			synchronized (pipes.lock) {
+				lastDataNanos = System.nanoTime();
+			}
+			return true;
+		}
+		return offer(chunk(readBuffer, length));
+	}
+
+	private boolean offer(OutputData chunk) throws InterruptedException {
+		synchronized (pipes.lock) {
+			while (size >= CAPACITY && !pipes.isClosed() && !discarded) {
+				writerWaiting = true;
+				pipes.lock.wait();
+			}
+			writerWaiting = false;
+			if (pipes.isClosed() || discarded) {
+				chunk.release();
+				return !pipes.isClosed();
+			}
+			chunks.add(chunk);
+			size += chunk.length();
+			lastDataNanos = System.nanoTime();
+			pipes.signal();
+			return true;
+		}
+	}
+
+	/**
+	 * Copy buffered bytes without blocking.
+	 *
+	 * @return the number of bytes copied, 0 if nothing is buffered yet or -1 if
+	 *         the end of the stream was reached
+	 */
+	int read(byte[] buffer, int off, int len) {
+		synchronized (pipes.lock) {
+			if (size == 0) {
+				return eof ? -1 : 0;
+			}
+			int read = 0;
+			while (read < len && !chunks.isEmpty()) {
+				OutputData chunk = chunks.peek();
+				int length = Math.min(len - read, chunk.length() - chunkIndex);
+				System.arraycopy(chunk.array(), chunkIndex, buffer, off + read, length);
+				read += length;
+				chunkIndex += length;
+				if (chunkIndex >= chunk.length()) {
+					chunks.poll().release();
+					chunkIndex = 0;
+				}
+			}
+			size -= read;
+			signalWriter();
+			return read;
+		}
+	}
+
+	/**
+	 * Take the next buffered chunk without blocking. The caller owns the chunk and
+	 * is responsible to release it.
+	 *
+	 * @return the chunk or {@code null} if nothing is buffered
+	 */
+	OutputData take() {
+		if (size == 0) {
+			return null;
+		}
+		synchronized (pipes.lock) {
+			OutputData chunk = chunks.poll();
+			if (chunk == null) {
+				return null;
+			}
+			if (chunkIndex > 0) {
+				final byte[] bytes = Arrays.copyOfRange(chunk.array(), chunkIndex, chunk.length());
+				OutputData remaining = new OutputData(fd, bytes, bytes.length, false, chunk.sequence(),
+						chunk.arrivalNanos());
+				chunk.release();
+				chunk = remaining;
+				chunkIndex = 0;
+			}
+			size -= chunk.length();
+			signalWriter();
+			return chunk;
+		}
+	}
+
+	/**
+	 * Wake up the drainer waiting for free space once half the capacity is free,
+	 * so that it is not woken up for each chunk taken.
+	 */
+	private void signalWriter() {
+		if (writerWaiting && size <= CAPACITY / 2) {
+			writerWaiting = false;
+			pipes.signal();
+		}
+	}
+
+	/**
+	 * Drop what is buffered and everything read from now on, the drainer keeps
+	 * reading so that the process never blocks writing to the pipe.
+	 */
+	void discard() {
+		synchronized (pipes.lock) {
+			discarded = true;
+			OutputData chunk;
+			while ((chunk = chunks.poll()) != null) {
+				chunk.release();
+			}
+			chunkIndex = 0;
+			size = 0;
+			writerWaiting = false;
+			pipes.signal();
+		}
+	}
+
+	/**
+	 * Return the sequence number of the next buffered chunk without taking it.
+	 *
+	 * @return the sequence number or {@code Long.MAX_VALUE} if nothing is buffered
+	 */
+	long headSequence() {
+		if (size == 0) {
+			return Long.MAX_VALUE;
+		}
+		synchronized (pipes.lock) {
+			OutputData chunk = chunks.peek();
+			return chunk == null ? Long.MAX_VALUE : chunk.sequence();
+		}
+	}
+
+	int available() {
+		synchronized (pipes.lock) {
+			return size;
+		}
+	}
+
+	/**
+	 * Return true if the drainer can not read more until the readers free some
+	 * space.
+	 */
+	boolean isFull() {
+		synchronized (pipes.lock) {
+			return writerWaiting || size >= CAPACITY;
+		}
+	}
+
+	boolean isEof() {
+		synchronized (pipes.lock) {
+			return eof;
+		}
+	}
+
+	long lastDataNanos() {
+		synchronized (pipes.lock) {
+			return lastDataNanos;
+		}
+	}
+}
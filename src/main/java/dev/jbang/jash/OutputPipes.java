@@ -0,0 +1,271 @@
+/*-
+ *  § 
+ * jash
+ *    
+ * Copyright (C) 2020 OnGres, Inc.
+ *    
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * § §
+ */
+
+package dev.jbang.jash;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * The output pipes of a process, shared by all the {@code Jash} instances that
+ * wrap it.
+ * <p>
+ * Each pipe is drained by a dedicated daemon thread, or by a shared
+ * {@code OutputMultiplexer} when requested, that is started the first time the
+ * pipe is requested. All the pipes share the same lock so that a reader
+ * interested in more than one of them can park until any of them changes.
+ * </p>
+ */
+class OutputPipes implements Closeable {
+
+	/**
+	 * Maximum time a reader parks before checking again if the process is still
+	 * alive.
+	 */
+	static final long LIVENESS_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+	/**
+	 * Time a pipe that did not reach the end of stream is still read after the
+	 * process exited, a background child may keep it open forever.
+	 */
+	static final long EXIT_GRACE_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+	final Object lock = new Object();
+	private final CustomProcess process;
+	private final boolean multiplexed;
+	private final OutputCapture capture;
+	private final Map<Integer, OutputPipe> pipes = new HashMap<>();
+	private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+	private final AtomicLong sequence = new AtomicLong();
+	private final long createdNanos = System.nanoTime();
+	private long version = 0;
+	private boolean closed = false;
+	private long exitObservedNanos = 0;
+	private boolean exitObserved = false;
+	private volatile Supplier<ProcessTimeoutException> killedOnTimeout;
+
+	OutputPipes(CustomProcess process, boolean multiplexed, OutputCapture capture) {
+		this.process = process;
+		this.multiplexed = multiplexed;
+		this.capture = capture;
+	}
+
+	/**
+	 * Get the pipe for the specified fd, starting to drain it if needed.
+	 */
+	OutputPipe pipe(int fd) {
+		synchronized (lock) {
+			OutputPipe pipe = pipes.get(fd);
+			if (pipe == null) {
+				pipe = new OutputPipe(this, fd,
+						fd == Jash.STDOUT ? process.getInputStream() : process.getErrorStream());
+				pipes.put(fd, pipe);
+				if (multiplexed) {
+					OutputMultiplexer.register(pipe);
+					return pipe;
+				}
+				Thread thread = new Thread(pipe,
+						"jash-drain-" + (fd == Jash.STDOUT ? "stdout" : "stderr"));
+				thread.setDaemon(true);
+				thread.start();
+			}
+			return pipe;
+		}
+	}
+
+	/**
+	 * Record that a deadline is killing the process, so that all the {@code Jash}
+	 * sharing it report the timeout and not the exit code of the killed process.
+	 */
+	void killedOnTimeout(Supplier<ProcessTimeoutException> timeoutException) {
+		killedOnTimeout = timeoutException;
+	}
+
+	/**
+	 * Return the supplier of the exception describing the timeout that killed the
+	 * process, or {@code null} if no deadline killed it.
+	 */
+	Supplier<ProcessTimeoutException> killedOnTimeout() {
+		return killedOnTimeout;
+	}
+
+	/**
+	 * Keep what was read from the specified fd if the output is captured.
+	 */
+	void capture(int fd, byte[] buffer, int length) {
+		if (capture != null) {
+			capture.append(fd, buffer, 0, length);
+		}
+	}
+
+	/**
+	 * Return what was captured of the output so far or {@code null} if it is not
+	 * captured.
+	 */
+	OutputTail outputTail() {
+		return capture == null ? null : capture.snapshot();
+	}
+
+	/**
+	 * Drain the pipe for the specified fd dropping what is read, starting to drain
+	 * it if needed.
+	 */
+	void discard(int fd) {
+		pipe(fd).discard();
+	}
+
+	/**
+	 * Return true if the pipe for the specified fd was already created.
+	 */
+	boolean isDraining(int fd) {
+		synchronized (lock) {
+			return pipes.containsKey(fd);
+		}
+	}
+
+	/**
+	 * A counter that changes every time any pipe changes. Read it before trying to
+	 * read and pass it to {@code await} to not miss a signal.
+	 */
+	long version() {
+		synchronized (lock) {
+			return version;
+		}
+	}
+
+	/**
+	 * The number of the next chunk read from any of the pipes, so that readers of
+	 * more than one pipe can tell which chunk arrived first.
+	 */
+	long nextSequence() {
+		return sequence.incrementAndGet();
+	}
+
+	/**
+	 * Must be called holding the lock.
+	 */
+	void signal() {
+		version++;
+		lock.notifyAll();
+		for (Runnable listener : listeners) {
+			listener.run();
+		}
+	}
+
+	/**
+	 * Run the listener, holding the lock, every time any pipe changes. It runs on
+	 * the thread that changed the pipe so it must not block.
+	 */
+	void addListener(Runnable listener) {
+		listeners.add(listener);
+	}
+
+	void removeListener(Runnable listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Wake up the readers parked on the pipes, so that they check again the state
+	 * of the process.
+	 */
+	void wakeUp() {
+		synchronized (lock) {
+			signal();
+		}
+	}
+
+	/**
+	 * Park until any pipe changes after the specified version or the specified
+	 * time elapses.
+	 */
+	void await(long seenVersion, long nanos) throws InterruptedException {
+		synchronized (lock) {
+			if (version == seenVersion && !closed) {
+				TimeUnit.NANOSECONDS.timedWait(lock, nanos);
+			}
+		}
+	}
+
+	/**
+	 * Return true if nothing more will be read from the pipe.
+	 */
+	boolean isFinished(OutputPipe pipe) {
+		synchronized (lock) {
+			if (pipe.available() > 0) {
+				return false;
+			}
+			if (pipe.isEof() || closed) {
+				return true;
+			}
+			if (process.isAlive()) {
+				return false;
+			}
+			long now = System.nanoTime();
+			if (!exitObserved) {
+				exitObserved = true;
+				exitObservedNanos = now;
+			}
+			return now - exitObservedNanos > EXIT_GRACE_NANOS
+					&& now - pipe.lastDataNanos() > EXIT_GRACE_NANOS;
+		}
+	}
+
+	/**
+	 * Return the last time any pipe got data, or when the pipes were created if
+	 * none did yet. A full pipe counts as getting data now, the process is
+	 * waiting for the reader and not the other way around.
+	 */
+	long lastDataNanos() {
+		synchronized (lock) {
+			long lastDataNanos = createdNanos;
+			for (OutputPipe pipe : pipes.values()) {
+				if (pipe.isFull()) {
+					return System.nanoTime();
+				}
+				lastDataNanos = Math.max(lastDataNanos, pipe.lastDataNanos());
+			}
+			return lastDataNanos;
+		}
+	}
+
+	boolean isProcessAlive() {
+		return process.isAlive();
+	}
+
+	boolean isClosed() {
+		synchronized (lock) {
+			return closed;
+		}
+	}
+
+	@Override
+	public void close() {
+		synchronized (lock) {
+			closed = true;
+			signal();
+		}
+	}
+}
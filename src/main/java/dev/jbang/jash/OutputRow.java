@@ -0,0 +1,392 @@
+/*-
+ *  § 
+ * jash
+ *    
+ * Copyright (C) 2020 OnGres, Inc.
+ *    
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * § §
+ */
+
+package dev.jbang.jash;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A reusable cursor over the fields of a row of the process output.
+ * <p>
+ * Rows are tokenized directly from the output bytes, only the bounds of each
+ * field are kept and a field is converted only when accessed. The same
+ * instance is moved to the next row each time one is requested, so a row must
+ * not be kept: copy whatever is needed from it first.
+ * </p>
+ * <p>
+ * A CSV row with a quoted field that contains line breaks spans more than one
+ * line, the line breaks are read back as a single line feed.
+ * </p>
+ *
+ * @see Jash#streamRows(FieldSpec)
+ */
+public class OutputRow {
+
+	static final byte QUOTE = '"';
+
+	private static final double[] POWERS_OF_TEN = {
+			1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private final FieldSpec spec;
+	private final Charset charset;
+	private int fd;
+	private byte[] bytes;
+	private int offset;
+	private int length;
+	private long streamOffset;
+	private ByteBuffer words;
+	private byte[] joined = null;
+	private int size = 0;
+	private int[] starts = new int[16];
+	private int[] ends = new int[16];
+	private boolean[] escaped = new boolean[16];
+	private boolean unterminated = false;
+
+	OutputRow(FieldSpec spec, Charset charset) {
+		this.spec = spec;
+		this.charset = charset;
+	}
+
+	/**
+	 * Move the cursor to the line held by the view.
+	 */
+	void set(OutputLineView line) {
+		fd = line.fd();
+		streamOffset = line.streamOffset();
+		set(line.array(), line.offset(), line.byteLength());
+	}
+
+	/**
+	 * Copy the row to its own buffer, so that it stays valid when the view moves
+	 * to the next line.
+	 */
+	void detach() {
+		if (bytes != joined) {
+			if (joined == null || joined.length < length) {
+				joined = new byte[Math.max(256, length * 2)];
+			}
+			System.arraycopy(bytes, offset, joined, 0, length);
+			set(joined, 0, length);
+		}
+	}
+
+	/**
+	 * Continue a detached row that ended inside a quoted field with the line held
+	 * by the view.
+	 */
+	void append(OutputLineView line) {
+		final int joinedLength = length + 1 + line.byteLength();
+		if (joined.length < joinedLength) {
+			joined = Arrays.copyOf(joined, Math.max(joinedLength, joined.length * 2));
+		}
+		joined[length] = '\n';
+		System.arraycopy(line.array(), line.offset(), joined, length + 1, line.byteLength());
+		set(joined, 0, joinedLength);
+	}
+
+	private void set(byte[] bytes, int offset, int length) {
+		if (this.bytes != bytes) {
+			words = ByteScanner.wrap(bytes);
+		}
+		this.bytes = bytes;
+		this.offset = offset;
+		this.length = length;
+		tokenize();
+	}
+
+	/**
+	 * True if the row ended inside a quoted field.
+	 */
+	boolean isUnterminated() {
+		return unterminated;
+	}
+
+	public int fd() {
+		return fd;
+	}
+
+	/**
+	 * Return the number of fields of the row.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Return true if the field at the specified index is empty.
+	 */
+	public boolean isEmpty(int index) {
+		checkIndex(index);
+		return starts[index] == ends[index];
+	}
+
+	/**
+	 * Return the field at the specified index as a {@code String}.
+	 */
+	public String getString(int index) {
+		checkIndex(index);
+		final int start = starts[index];
+		final int end = ends[index];
+		if (escaped[index]) {
+			final byte[] unescaped = new byte[end - start];
+			int length = 0;
+			for (int position = start; position < end; position++) {
+				unescaped[length++] = bytes[position];
+				if (bytes[position] == QUOTE) {
+					position++;
+				}
+			}
+			return decode(unescaped, 0, length);
+		}
+		return decode(bytes, start, end - start);
+	}
+
+	/**
+	 * Return the field at the specified index parsed as a decimal {@code long}.
+	 *
+	 * @throws NumberFormatException if the field is not a valid {@code long}
+	 */
+	public long getLong(int index) {
+		checkIndex(index);
+		int position = starts[index];
+		final int end = ends[index];
+		final boolean negative = position < end && bytes[position] == '-';
+		if (negative || position < end && bytes[position] == '+') {
+			position++;
+		}
+		if (position >= end || escaped[index]) {
+			throw invalidNumber(index);
+		}
+		long value = 0;
+		for (; position < end; position++) {
+			final int digit = bytes[position] - '0';
+			// accumulated as a negative number to reach Long.MIN_VALUE
+			if (digit < 0 || digit > 9 || value < Long.MIN_VALUE / 10
+					|| value * 10 < Long.MIN_VALUE + digit) {
+				throw invalidNumber(index);
+			}
+			value = value * 10 - digit;
+		}
+		if (!negative) {
+			if (value == Long.MIN_VALUE) {
+				throw invalidNumber(index);
+			}
+			return -value;
+		}
+		return value;
+	}
+
+	/**
+	 * Return the field at the specified index parsed as a decimal {@code int}.
+	 *
+	 * @throws NumberFormatException if the field is not a valid {@code int}
+	 */
+	public int getInt(int index) {
+		final long value = getLong(index);
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+			throw invalidNumber(index);
+		}
+		return (int) value;
+	}
+
+	/**
+	 * Return the field at the specified index parsed as a {@code double} with the
+	 * same syntax accepted by {@code Double.parseDouble(String)}.
+	 *
+	 * @throws NumberFormatException if the field is not a valid {@code double}
+	 */
+	public double getDouble(int index) {
+		checkIndex(index);
+		int position = starts[index];
+		final int end = ends[index];
+		final boolean negative = position < end && bytes[position] == '-';
+		if (negative || position < end && bytes[position] == '+') {
+			position++;
+		}
+		// plain decimals with up to 15 digits are exact as double, as is the power of
+		// ten, so the division is correctly rounded; anything else is left to
+		// Double.parseDouble
+		long mantissa = 0;
+		int digits = 0;
+		int fractionDigits = -1;
+		for (; position < end; position++) {
+			final byte value = bytes[position];
+			if (value >= '0' && value <= '9') {
+				mantissa = mantissa * 10 + value - '0';
+				digits++;
+				if (fractionDigits >= 0) {
+					fractionDigits++;
+				}
+			} else if (value == '.' && fractionDigits < 0) {
+				fractionDigits = 0;
+			} else {
+				break;
+			}
+		}
+		if (position < end || digits == 0 || digits > 15 || escaped[index]) {
+			try {
+				return Double.parseDouble(getString(index));
+			} catch (NumberFormatException ex) {
+				throw invalidNumber(index);
+			}
+		}
+		double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Return the offset of the first byte of the field at the specified index from
+	 * the start of the output of its fd.
+	 */
+	public long streamOffset(int index) {
+		checkIndex(index);
+		return streamOffset + starts[index] - offset;
+	}
+
+	private NumberFormatException invalidNumber(int index) {
+		return new NumberFormatException("For input string: \"" + getString(index) + "\" at byte "
+				+ streamOffset(index) + " of fd " + fd);
+	}
+
+	private String decode(byte[] bytes, int offset, int length) {
+		return new String(bytes, offset, length,
+				ByteScanner.isAscii(bytes, offset, offset + length) ? StandardCharsets.ISO_8859_1 : charset);
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Field " + index + " of a row with " + size + " fields");
+		}
+	}
+
+	private void tokenize() {
+		size = 0;
+		unterminated = false;
+		final int end = offset + length;
+		switch (spec.kind) {
+		case WHITESPACE:
+			tokenizeWhitespace(end);
+			break;
+		case DELIMITED:
+			tokenizeDelimited(end);
+			break;
+		default:
+			tokenizeCsv(end);
+		}
+	}
+
+	private void tokenizeWhitespace(int end) {
+		int position = offset;
+		while (true) {
+			while (position < end && isWhitespace(bytes[position])) {
+				position++;
+			}
+			if (position >= end) {
+				return;
+			}
+			final int start = position;
+			while (position < end && !isWhitespace(bytes[position])) {
+				position++;
+			}
+			add(start, position, false);
+		}
+	}
+
+	private static boolean isWhitespace(byte value) {
+		return value == ' ' || value == '\t';
+	}
+
+	private void tokenizeDelimited(int end) {
+		int position = offset;
+		while (true) {
+			final int index = ByteScanner.indexOf(words, position, end, spec.delimiter);
+			if (index < 0) {
+				add(position, end, false);
+				return;
+			}
+			add(position, index, false);
+			position = index + 1;
+		}
+	}
+
+	private void tokenizeCsv(int end) {
+		int position = offset;
+		while (true) {
+			if (position < end && bytes[position] == QUOTE) {
+				final int start = position + 1;
+				boolean hasEscapes = false;
+				int quote = ByteScanner.indexOf(words, start, end, QUOTE);
+				while (quote >= 0 && quote + 1 < end && bytes[quote + 1] == QUOTE) {
+					hasEscapes = true;
+					quote = ByteScanner.indexOf(words, quote + 2, end, QUOTE);
+				}
+				if (quote < 0) {
+					unterminated = true;
+					add(start, end, hasEscapes);
+					return;
+				}
+				add(start, quote, hasEscapes);
+				// anything between the closing quote and the delimiter is ignored
+				position = ByteScanner.indexOf(words, quote + 1, end, spec.delimiter);
+				if (position < 0) {
+					return;
+				}
+				position++;
+				continue;
+			}
+			final int index = ByteScanner.indexOf(words, position, end, spec.delimiter);
+			if (index < 0) {
+				add(position, end, false);
+				return;
+			}
+			add(position, index, false);
+			position = index + 1;
+		}
+	}
+
+	private void add(int start, int end, boolean escaped) {
+		if (size == starts.length) {
+			starts = Arrays.copyOf(starts, size * 2);
+			ends = Arrays.copyOf(ends, size * 2);
+			this.escaped = Arrays.copyOf(this.escaped, size * 2);
+		}
+		starts[size] = start;
+		ends[size] = end;
+		this.escaped[size] = escaped;
+		size++;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append(fd).append(':').append('[');
+		for (int index = 0; index < size; index++) {
+			if (index > 0) {
+				builder.append(", ");
+			}
+			builder.append(getString(index));
+		}
+		return builder.append(']').toString();
+	}
+}
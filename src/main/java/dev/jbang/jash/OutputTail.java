@@ -0,0 +1,170 @@
+/*-
+ *  § 
+ * jash
+ *    
+ * Copyright (C) 2020 OnGres, Inc.
+ *    
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * § §
+ */
+
+package dev.jbang.jash;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.StringJoiner;
+
+/**
+ * What was captured of the process output at some point, the first and the
+ * last bytes of each fd and how many bytes in between were dropped.
+ *
+ * @see JashBuilder#captureOutput(int, int)
+ */
+public class OutputTail {
+
+	private final Fd[] fds;
+	private final Charset charset;
+
+	OutputTail(Fd stdout, Fd stderr, Charset charset) {
+		this.fds = new Fd[] { null, stdout, stderr };
+		this.charset = charset;
+	}
+
+	/**
+	 * Return the first captured bytes of the specified fd.
+	 */
+	public String head(int fd) {
+		return new String(fd(fd).head, charset);
+	}
+
+	/**
+	 * Return the last captured bytes of the specified fd, the first line may be
+	 * cut if some bytes were dropped.
+	 */
+	public String tail(int fd) {
+		return new String(fd(fd).tail, charset);
+	}
+
+	/**
+	 * Return the number of bytes of the specified fd that were neither kept in the
+	 * head nor in the tail.
+	 */
+	public long droppedBytes(int fd) {
+		return fd(fd).dropped;
+	}
+
+	/**
+	 * Return the last complete lines of each fd, up to the specified count for
+	 * each one, the stdout lines before the stderr ones.
+	 */
+	public List<OutputLine> lines(int count) {
+		List<OutputLine> lines = new ArrayList<>();
+		lines.addAll(lines(Jash.STDOUT, count));
+		lines.addAll(lines(Jash.STDERR, count));
+		return lines;
+	}
+
+	private List<OutputLine> lines(int fd, int count) {
+		final Fd captured = fd(fd);
+		final byte[] bytes;
+		int lineStart = 0;
+		if (captured.dropped == 0) {
+			bytes = Arrays.copyOf(captured.head, captured.head.length + captured.tail.length);
+			System.arraycopy(captured.tail, 0, bytes, captured.head.length, captured.tail.length);
+		} else {
+			bytes = captured.tail;
+			if (captured.partial) {
+				// the first line started in the dropped bytes
+				while (lineStart < bytes.length && bytes[lineStart] != '\n') {
+					lineStart++;
+				}
+				lineStart++;
+			}
+		}
+		List<OutputLine> lines = new ArrayList<>();
+		for (int index = lineStart; index < bytes.length; index++) {
+			if (bytes[index] == '\n') {
+				lines.add(line(fd, bytes, lineStart, index));
+				lineStart = index + 1;
+			}
+		}
+		if (lineStart < bytes.length) {
+			lines.add(line(fd, bytes, lineStart, bytes.length));
+		}
+		return lines.subList(Math.max(0, lines.size() - count), lines.size());
+	}
+
+	private OutputLine line(int fd, byte[] bytes, int start, int end) {
+		if (end > start && bytes[end - 1] == '\r') {
+			end--;
+		}
+		return new OutputLine(fd, new String(bytes, start, end - start, charset), charset, 0, 0);
+	}
+
+	private Fd fd(int fd) {
+		if (fd != Jash.STDOUT && fd != Jash.STDERR) {
+			throw new IllegalArgumentException("Unknown fd " + fd);
+		}
+		return fds[fd];
+	}
+
+	/**
+	 * Render the head, the number of dropped bytes and the tail of each fd that
+	 * printed something.
+	 */
+	@Override
+	public String toString() {
+		StringJoiner joiner = new StringJoiner("\n");
+		for (int fd = Jash.STDOUT; fd <= Jash.STDERR; fd++) {
+			final Fd captured = fds[fd];
+			if (captured.head.length == 0 && captured.tail.length == 0) {
+				continue;
+			}
+			joiner.add((fd == Jash.STDOUT ? "stdout" : "stderr") + ":");
+			if (captured.head.length > 0) {
+				joiner.add(trim(head(fd)));
+			}
+			if (captured.dropped > 0) {
+				joiner.add("... " + captured.dropped + " bytes dropped ...");
+			}
+			if (captured.tail.length > 0) {
+				joiner.add(trim(tail(fd)));
+			}
+		}
+		return joiner.toString();
+	}
+
+	private static String trim(String output) {
+		return output.endsWith("\n") ? output.substring(0, output.length() - 1) : output;
+	}
+
+	static class Fd {
+		final byte[] head;
+		final byte[] tail;
+		final long dropped;
+		final boolean partial;
+
+		/**
+		 * @param partial true if the tail starts in the middle of a line, the last
+		 *                dropped byte was not a line break
+		 */
+		Fd(byte[] head, byte[] tail, long dropped, boolean partial) {
+			this.head = head;
+			this.tail = tail;
+			this.dropped = dropped;
+			this.partial = partial;
+		}
+	}
+}
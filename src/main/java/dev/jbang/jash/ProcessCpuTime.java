@@ -0,0 +1,102 @@
+/*-
+ *  § 
+ * jash
+ *    
+ * Copyright (C) 2020 OnGres, Inc.
+ *    
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * § §
+ */
+
+package dev.jbang.jash;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Reads the CPU time used by a process tree from {@code /proc}, only available
+ * on Linux.
+ */
+final class ProcessCpuTime {
+
+	private static final Path PROC = Paths.get("/proc");
+
+	// utime, stime, cutime and cstime counted from the field after the name
+	private static final int FIRST_TIME_FIELD = 11;
+	private static final int TIME_FIELDS = 4;
+
+	private ProcessCpuTime() {
+	}
+
+	/**
+	 * Return the clock ticks spent by the process and all its descendants, the
+	 * ones that exited included, or -1 if the process is not found.
+	 */
+	static long ticks(long pid) {
+		if (pid <= 0) {
+			return -1;
+		}
+		final long ticks = ownTicks(pid);
+		if (ticks < 0) {
+			return -1;
+		}
+		return ticks + childrenTicks(pid);
+	}
+
+	private static long ownTicks(long pid) {
+		final String stat;
+		try {
+			stat = new String(Files.readAllBytes(PROC.resolve(Long.toString(pid)).resolve("stat")),
+					StandardCharsets.US_ASCII);
+		} catch (IOException | RuntimeException ex) {
+			return -1;
+		}
+		// the name between parenthesis may contain spaces
+		final String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+		if (fields.length < FIRST_TIME_FIELD + TIME_FIELDS) {
+			return -1;
+		}
+		long ticks = 0;
+		for (int index = FIRST_TIME_FIELD; index < FIRST_TIME_FIELD + TIME_FIELDS; index++) {
+			ticks += Long.parseLong(fields[index]);
+		}
+		return ticks;
+	}
+
+	private static long childrenTicks(long pid) {
+		long ticks = 0;
+		try (DirectoryStream<Path> tasks = Files.newDirectoryStream(
+				PROC.resolve(Long.toString(pid)).resolve("task"))) {
+			for (Path task : tasks) {
+				final String children;
+				try {
+					children = new String(Files.readAllBytes(task.resolve("children")), StandardCharsets.US_ASCII);
+				} catch (IOException ex) {
+					continue;
+				}
+				for (String child : children.trim().split(" ")) {
+					if (!child.isEmpty()) {
+						ticks += Math.max(0, ticks(Long.parseLong(child)));
+					}
+				}
+			}
+		} catch (IOException | RuntimeException ex) {
+			// the process exited meanwhile
+		}
+		return ticks;
+	}
+}
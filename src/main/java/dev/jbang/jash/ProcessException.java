@@ -21,6 +21,7 @@
 package dev.jbang.jash;
 
 import java.util.Collection;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
 public class ProcessException extends RuntimeException {
@@ -29,17 +30,25 @@ public class ProcessException extends RuntimeException {
 
 	private final int exitCode;
 	private final Collection<String> args;
+	private final transient OutputTail outputTail;
 
 	public ProcessException(int exitCode, Collection<String> args) {
-		super(buildMessage(exitCode, args));
+		this(exitCode, args, null);
+	}
+
+	public ProcessException(int exitCode, Collection<String> args, OutputTail outputTail) {
+		super(outputTail == null ? buildMessage(exitCode, args)
+				: buildMessage(exitCode, args) + "\n" + outputTail);
 		this.exitCode = exitCode;
 		this.args = args;
+		this.outputTail = outputTail;
 	}
 
 	protected ProcessException(String message, int exitCode, Collection<String> args) {
 		super(message);
 		this.exitCode = exitCode;
 		this.args = args;
+		this.outputTail = null;
 	}
 
 	private static String buildMessage(int exitCode, Collection<String> args) {
@@ -54,4 +63,13 @@ public class ProcessException extends RuntimeException {
 	public Collection<String> getArgs() {
 		return args;
 	}
+
+	/**
+	 * Return what was captured of the output when the process failed.
+	 *
+	 * @see JashBuilder#captureOutput(int, int)
+	 */
+	public Optional<OutputTail> getOutputTail() {
+		return Optional.ofNullable(outputTail);
+	}
 }
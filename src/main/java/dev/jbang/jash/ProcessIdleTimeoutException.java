@@ -0,0 +1,61 @@
+/*-
+ *  § 
+ * jash
+ *    
+ * Copyright (C) 2020 OnGres, Inc.
+ *    
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * § §
+ */
+
+package dev.jbang.jash;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.stream.Collectors;
+
+public class ProcessIdleTimeoutException extends ProcessTimeoutException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * What the process did not do for longer than the timeout.
+	 */
+	public enum Condition {
+		/**
+		 * No output arrived on any fd, see {@link Jash#withIdleTimeout(Duration)}.
+		 */
+		NO_OUTPUT,
+		/**
+		 * The process tree used no CPU, see {@link Jash#withStallTimeout(Duration)}.
+		 */
+		NO_CPU_PROGRESS
+	}
+
+	private final Condition condition;
+
+	public ProcessIdleTimeoutException(Condition condition, Duration timeout, Collection<String> args) {
+		super(buildMessage(condition, timeout, args), timeout, args);
+		this.condition = condition;
+	}
+
+	private static String buildMessage(Condition condition, Duration timeout, Collection<String> args) {
+		return "Command " + args.stream().collect(Collectors.joining(" "))
+				+ (condition == Condition.NO_OUTPUT ? " produced no output for " : " used no CPU for ")
+				+ timeout.toString();
+	}
+
+	public Condition getCondition() {
+		return condition;
+	}
+}
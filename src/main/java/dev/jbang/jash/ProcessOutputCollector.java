@@ -0,0 +1,145 @@
+/*-
+ *  § 
+ * jash
+ *    
+ * Copyright (C) 2020 OnGres, Inc.
+ *    
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * § §
+ */
+
+package dev.jbang.jash;
+
+import java.nio.charset.Charset;
+import java.util.AbstractMap.SimpleEntry;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+/**
+ * Collects the process output without a thread of its own.
+ * <p>
+ * The collector listens to the {@code OutputPipes} and takes whatever is
+ * buffered on the thread that changed them, usually the one draining a pipe.
+ * Once the process exited the {@code Watchdog} wakes it up periodically, so
+ * that a pipe kept open by a background child is given up the same way the
+ * iterators do. The future is completed with the lines of each fd joined by
+ * the delimiter or, when discarding, with an empty map.
+ * </p>
+ */
+class ProcessOutputCollector implements Runnable {
+
+	private final Jash jash;
+	private final OutputPipes outputPipes;
+	private final List<OutputLineSplitter> splitters;
+	private final Map<Integer, StringJoiner> joiners = new HashMap<>();
+	private final OutputLineView line;
+	private final boolean discard;
+	private final CompletableFuture<Map<Integer, String>> future = new CompletableFuture<>();
+	private boolean running = false;
+	private boolean runAgain = false;
+
+	ProcessOutputCollector(Jash jash,
+			OutputPipes outputPipes,
+			List<SimpleEntry<Integer, OutputPipe>> pipes,
+			Charset charset,
+			CharSequence delimiter,
+			boolean discard) {
+		this.jash = jash;
+		this.outputPipes = outputPipes;
+		this.splitters = pipes	.stream()
+								.map(e -> new OutputLineSplitter(e.getKey(), e.getValue(), charset, null, true,
+										null))
+								.collect(Collectors.toList());
+		this.line = new OutputLineView(charset);
+		this.discard = discard;
+		if (!discard) {
+			joiners.put(Jash.STDOUT, new StringJoiner(delimiter));
+			joiners.put(Jash.STDERR, new StringJoiner(delimiter));
+		}
+	}
+
+	/**
+	 * Start collecting, the future completes once the process exited and all its
+	 * output was collected.
+	 */
+	CompletableFuture<Map<Integer, String>> start() {
+		outputPipes.addListener(this);
+		jash.getProcess()
+			.onExit()
+			.thenRun(() -> Watchdog.INSTANCE.schedule(System.nanoTime(), deadline -> {
+				run();
+				if (!future.isDone()) {
+					deadline.reschedule(System.nanoTime() + OutputPipes.LIVENESS_CHECK_NANOS);
+				}
+			}));
+		run();
+		return future;
+	}
+
+	@Override
+	public void run() {
+		synchronized (outputPipes.lock) {
+			if (future.isDone()) {
+				return;
+			}
+			if (running) {
+				// taking from a pipe signals it again
+				runAgain = true;
+				return;
+			}
+			running = true;
+			try {
+				do {
+					runAgain = false;
+					collect();
+				} while (runAgain && !future.isDone());
+			} catch (RuntimeException ex) {
+				outputPipes.removeListener(this);
+				future.completeExceptionally(ex);
+			} finally {
+				running = false;
+			}
+		}
+	}
+
+	private void collect() {
+		final boolean closed = jash.isClosed();
+		boolean finished = closed;
+		for (int i = 0; i < splitters.size(); i++) {
+			final OutputLineSplitter splitter = splitters.get(i);
+			final boolean pipeFinished = closed && jash.isFinished(splitter.pipe());
+			if (discard) {
+				OutputData chunk;
+				while ((chunk = splitter.pipe().take()) != null) {
+					chunk.release();
+				}
+			} else {
+				while (splitter.advance(pipeFinished || splitter.pipe().isEof())) {
+					splitter.fill(line);
+					joiners.get(line.fd()).add(line.toString());
+				}
+			}
+			finished &= pipeFinished;
+		}
+		if (finished) {
+			outputPipes.removeListener(this);
+			future.complete(joiners	.entrySet()
+									.stream()
+									.collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().toString())));
+		}
+	}
+}
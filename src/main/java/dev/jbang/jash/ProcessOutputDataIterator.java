@@ -22,49 +22,43 @@ package dev.jbang.jash;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.AbstractMap.SimpleEntry;
 import java.util.Iterator;
-import java.util.Map;
-import java.util.Map.Entry;
+import java.util.List;
 import java.util.NoSuchElementException;
-import java.util.Optional;
+import java.util.stream.Collectors;
 
 class ProcessOutputDataIterator implements Iterator<OutputData>, Closeable {
 
 	private final Jash jash;
-	private final Map<Integer, InputStream> inputStreams;
+	private final List<SimpleEntry<Integer, OutputPipe>> outputs;
+	private final List<OutputPipe> pipes;
 	private final boolean closeOnLast;
 	private OutputData frame = null;
 
 	ProcessOutputDataIterator(Jash jash,
-			boolean closeOnLast, Map<Integer, InputStream> inputStreams) {
+			boolean closeOnLast, List<SimpleEntry<Integer, OutputPipe>> pipes) {
 		this.jash = jash;
-		this.inputStreams = inputStreams;
-		inputStreams.entrySet()
-					.stream()
-					.map(Map.Entry::getValue)
-					.forEach(jash::registerCloseable);
+		this.outputs = pipes;
+		this.pipes = pipes	.stream()
+							.map(SimpleEntry::getValue)
+							.collect(Collectors.toList());
 		this.closeOnLast = closeOnLast;
 	}
 
 	@Override
 	public boolean hasNext() {
-		if (isClosed()) {
-			if (closeOnLast) {
-				try {
-					close();
-				} catch (IOException ex) {
-					throw new RuntimeException(ex);
-				}
-			}
-			return false;
+		if (frame != null) {
+			return true;
 		}
 		jash.checkTimeout();
 
-		while (frame == null) {
-			frame = availableInputStream()
-											.map(this::readAvailables)
-											.orElse(null);
+		for (int attempt = 0;; attempt++) {
+			final long version = jash.outputVersion();
+			frame = readAvailable();
+			if (frame != null) {
+				return true;
+			}
 			if (isClosed()) {
 				if (closeOnLast) {
 					try {
@@ -75,71 +69,50 @@ class ProcessOutputDataIterator implements Iterator<OutputData>, Closeable {
 				}
 				return false;
 			}
-			if (frame == null) {
-				jash.checkTimeout();
+			jash.checkTimeout();
 
-				jash.microSleep();
-			}
+			jash.awaitOutput(pipes, version, attempt);
 		}
-
-		return true;
 	}
 
 	public int available() {
 		jash.checkTimeout();
 
-		final int available = Optional	.ofNullable(frame)
-										.map(frame -> frame.bytes().length)
-										.orElseGet(() -> availableInputStream()
-																				.map(e -> {
-																					try {
-																						return e.getValue().available();
-																					} catch (IOException ex) {
-																						throw new RuntimeException(ex);
-																					}
-																				})
-																				.orElse(0));
-
-		if (available <= 0) {
-			jash.microSleep();
+		if (frame != null) {
+			return frame.length();
 		}
-
-		return available;
+		return pipes.stream()
+					.mapToInt(OutputPipe::available)
+					.sum();
 	}
 
 	public boolean isClosed() {
 		return jash.isClosed()
 				&& frame == null
-				&& !availableInputStream().isPresent();
+				&& pipes.stream()
+						.allMatch(jash::isFinished);
 	}
 
-	private Optional<Entry<Integer, InputStream>> availableInputStream() {
-		return inputStreams	.entrySet()
-							.stream()
-							.filter(inputStream -> {
-								try {
-									return inputStream.getValue().available() > 0;
-								} catch (IOException ex) {
-									throw new RuntimeException(ex);
-								}
-							})
-							.findAny();
-	}
-
-	private OutputData readAvailables(Map.Entry<Integer, InputStream> inputStream) {
-		try {
-			int available = inputStream.getValue().available();
-			if (available > 0) {
-				byte[] outputBuffer = new byte[available];
-				int value = inputStream.getValue().read(outputBuffer);
-				if (value > 0) {
-					return new OutputData(inputStream.getKey(), outputBuffer);
-				}
+	/**
+	 * Take the chunk that arrived first among the buffered ones, so that chunks are
+	 * returned in the order they were read and a chatty fd does not starve the
+	 * others.
+	 */
+	private OutputData readAvailable() {
+		SimpleEntry<Integer, OutputPipe> selected = null;
+		long sequence = Long.MAX_VALUE;
+		for (SimpleEntry<Integer, OutputPipe> pipe : outputs) {
+			final long head = pipe.getValue().headSequence();
+			if (head < sequence) {
+				selected = pipe;
+				sequence = head;
 			}
+		}
+		if (selected == null) {
 			return null;
-		} catch (IOException ex) {
-			throw new RuntimeException(ex);
 		}
+		OutputData chunk = selected.getValue().take();
+		return chunk == null ? null : chunk.withFd(selected.getKey());
 	}
 
 	@Override
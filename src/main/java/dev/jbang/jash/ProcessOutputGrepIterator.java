@@ -0,0 +1,74 @@
+/*-
+ *  § 
+ * jash
+ *    
+ * Copyright (C) 2020 OnGres, Inc.
+ *    
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * § §
+ */
+
+package dev.jbang.jash;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the lines of the process output that match a
+ * {@code LineMatcher}, lines are matched through a reused view and only the
+ * matching ones are copied.
+ */
+class ProcessOutputGrepIterator implements Iterator<OutputLine>, Closeable {
+
+	private final ProcessOutputLineIterator lines;
+	private final LineMatcher matcher;
+	private final OutputLineView line;
+	private OutputLine next = null;
+
+	ProcessOutputGrepIterator(ProcessOutputLineIterator lines, LineMatcher matcher, Charset charset) {
+		this.lines = lines;
+		this.matcher = matcher;
+		this.line = new OutputLineView(charset);
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (next == null && lines.nextLine(line)) {
+			if (matcher.matches(line)) {
+				next = line.toOutputLine();
+			}
+		}
+		return next != null;
+	}
+
+	@Override
+	public OutputLine next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		try {
+			return next;
+		} finally {
+			next = null;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		lines.close();
+	}
+}
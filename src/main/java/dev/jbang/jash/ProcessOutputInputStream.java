@@ -22,78 +22,58 @@ package dev.jbang.jash;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
 
 class ProcessOutputInputStream extends InputStream {
 	private final Jash jash;
-	private final InputStream inputStreamForOutput;
-	private byte[] buffer = new byte[8192];
-	private int bufferLength = 0;
-	private int bufferIndex = 0;
+	private final OutputPipe pipe;
+	private final byte[] single = new byte[1];
 
-	public ProcessOutputInputStream(Jash jash, InputStream inputStreamForOutput) {
+	public ProcessOutputInputStream(Jash jash, OutputPipe pipe) {
 		this.jash = jash;
-		this.inputStreamForOutput = inputStreamForOutput;
-		jash.registerCloseable(inputStreamForOutput);
+		this.pipe = pipe;
+	}
+
+	OutputPipe pipe() {
+		return pipe;
 	}
 
 	@Override
 	public int read(byte[] buffer, int off, int len) throws IOException {
-		if (!fill()) {
-			return -1;
+		if (len == 0) {
+			return 0;
 		}
+		jash.checkTimeout();
 
-		final int size = Math.min(len, this.bufferLength - this.bufferIndex);
-		System.arraycopy(this.buffer, this.bufferIndex, buffer, off, size);
-		this.bufferIndex += size;
-		return size;
+		for (int attempt = 0;; attempt++) {
+			final long version = jash.outputVersion();
+			final int value = pipe.read(buffer, off, len);
+			if (value != 0) {
+				return value;
+			}
+			if (isClosed()) {
+				return -1;
+			}
+			jash.checkTimeout();
+
+			jash.awaitOutput(Collections.singleton(pipe), version, attempt);
+		}
 	}
 
 	@Override
 	public int read() throws IOException {
-		if (!fill()) {
+		if (read(single, 0, 1) < 0) {
 			return -1;
 		}
 
-		int read = buffer[bufferIndex++] & 0xFF;
-
-		return read;
-	}
-
-	private boolean fill() throws IOException {
-		if (isClosed()) {
-			return false;
-		}
-		jash.checkTimeout();
-
-		while (bufferIndex >= bufferLength) {
-			final int length = Math.min(inputStreamForOutput.available(), buffer.length);
-			if (length > 0) {
-				bufferIndex = 0;
-				bufferLength = inputStreamForOutput.read(buffer, 0, length);
-			}
-			if (bufferIndex >= bufferLength) {
-				if (isClosed()) {
-					return false;
-				}
-				jash.checkTimeout();
-
-				jash.microSleep();
-			}
-		}
-		return true;
+		return single[0] & 0xFF;
 	}
 
 	@Override
 	public int available() throws IOException {
 		jash.checkTimeout();
 
-		final int available = inputStreamForOutput.available();
-
-		if (available <= 0) {
-			jash.microSleep();
-		}
-
-		return available;
+		return pipe.available();
 	}
 
 	@Override
@@ -102,12 +82,7 @@ class ProcessOutputInputStream extends InputStream {
 	}
 
 	public boolean isClosed() {
-		try {
-			return jash.isClosed()
-					&& bufferIndex >= bufferLength
-					&& inputStreamForOutput.available() <= 0;
-		} catch (IOException ex) {
-			throw new RuntimeException(ex);
-		}
+		return jash.isClosed()
+				&& jash.isFinished(pipe);
 	}
 }
@@ -20,53 +20,79 @@
 
 package dev.jbang.jash;
 
-import java.io.BufferedReader;
 import java.io.Closeable;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
+import java.nio.charset.Charset;
+import java.util.AbstractMap.SimpleEntry;
 import java.util.Iterator;
-import java.util.Map;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.stream.Collectors;
 
 class ProcessOutputLineIterator implements Iterator<OutputLine>, Closeable {
 
-	private final Map<Integer, ProcessOutputInputStream> processOutputDataInputStreams;
-	private final Map<Integer, BufferedReader> bufferedReaders;
+	private final Jash jash;
+	private final List<OutputLineSplitter> splitters;
+	private final List<OutputPipe> pipes;
+	private final Charset charset;
 	private final boolean closeOnLast;
-	private OutputLine line = null;
+	private final boolean[] ready;
+	private OutputLineSplitter current = null;
 
-	ProcessOutputLineIterator(
-			Map<Integer, ProcessOutputInputStream> processOutputDataInputStreams,
-			boolean closeOnLast) {
-		this.processOutputDataInputStreams = processOutputDataInputStreams;
-		this.bufferedReaders = processOutputDataInputStreams.entrySet()
-															.stream()
-															.collect(Collectors.toMap(Map.Entry::getKey,
-																	e -> new BufferedReader(new InputStreamReader(
-																			e.getValue(),
-																			StandardCharsets.UTF_8))));
+	ProcessOutputLineIterator(Jash jash,
+			List<SimpleEntry<Integer, OutputPipe>> pipes,
+			Charset charset,
+			byte[] delimiter,
+			boolean closeOnLast,
+			boolean reuseLines,
+			LineMatcher prefilter) {
+		this.jash = jash;
+		this.splitters = pipes	.stream()
+								.map(e -> new OutputLineSplitter(e.getKey(), e.getValue(), charset,
+										delimiter, reuseLines, prefilter))
+								.collect(Collectors.toList());
+		this.pipes = pipes	.stream()
+							.map(SimpleEntry::getValue)
+							.collect(Collectors.toList());
+		this.charset = charset;
 		this.closeOnLast = closeOnLast;
+		this.ready = new boolean[this.splitters.size()];
 	}
 
 	@Override
 	public boolean hasNext() {
-		if (line != null) {
+		if (current != null) {
+			return true;
+		}
+		jash.checkTimeout();
+		// lines already buffered are returned without looking at the pipes state
+		for (int i = 0; i < splitters.size(); i++) {
+			if (!ready[i]) {
+				ready[i] = splitters.get(i).advance(false);
+			}
+		}
+		if (select()) {
 			return true;
 		}
 
-		while (line == null) {
-			for (Map.Entry<Integer, BufferedReader> bufferedReaderEntry : bufferedReaders.entrySet()) {
-				Integer fd = bufferedReaderEntry.getKey();
-				BufferedReader bufferedReader = bufferedReaderEntry.getValue();
-				if (tryReadLine(fd, bufferedReader)) {
-					return true;
+		for (int attempt = 0;; attempt++) {
+			final long version = jash.outputVersion();
+			final boolean closed = jash.isClosed();
+			boolean finished = closed;
+			// indexed to not allocate an iterator for each line
+			for (int i = 0; i < splitters.size(); i++) {
+				if (ready[i]) {
+					continue;
 				}
+				final OutputLineSplitter splitter = splitters.get(i);
+				final boolean pipeFinished = closed && jash.isFinished(splitter.pipe());
+				ready[i] = splitter.advance(pipeFinished || splitter.pipe().isEof());
+				finished &= pipeFinished && !ready[i];
 			}
-			if (processOutputDataInputStreams	.values()
-												.stream()
-												.allMatch(ProcessOutputInputStream::isClosed)) {
+			if (select()) {
+				return true;
+			}
+			if (finished) {
 				if (closeOnLast) {
 					try {
 						close();
@@ -76,26 +102,30 @@ class ProcessOutputLineIterator implements Iterator<OutputLine>, Closeable {
 				}
 				return false;
 			}
-		}
+			jash.checkTimeout();
 
-		return true;
+			jash.awaitOutput(pipes, version, attempt);
+		}
 	}
 
-	private boolean tryReadLine(Integer fd, BufferedReader bufferedReader) {
-		try {
-			if (bufferedReader.ready()) {
-				String line = bufferedReader.readLine();
-				if (line == null) {
-					return false;
-				} else {
-					this.line = new OutputLine(fd, line);
-					return true;
-				}
+	/**
+	 * Pick among the fds with a line ready the one whose line arrived first, so
+	 * that lines are returned in the order they were written and a chatty fd does
+	 * not starve the others.
+	 */
+	private boolean select() {
+		int selected = -1;
+		for (int i = 0; i < ready.length; i++) {
+			if (ready[i] && (selected < 0 || splitters.get(i).sequence() < splitters.get(selected).sequence())) {
+				selected = i;
 			}
+		}
+		if (selected < 0) {
 			return false;
-		} catch (IOException ex) {
-			throw new RuntimeException(ex);
 		}
+		ready[selected] = false;
+		current = splitters.get(selected);
+		return true;
 	}
 
 	@Override
@@ -105,29 +135,39 @@ class ProcessOutputLineIterator implements Iterator<OutputLine>, Closeable {
 		}
 
 		try {
-			return line;
+			return current.line();
 		} finally {
-			line = null;
+			current = null;
 		}
 	}
 
-	@Override
-	public void close() throws IOException {
-		IOException ioException = null;
-		for (BufferedReader bufferedReader : this.bufferedReaders.values()) {
-			try {
-				bufferedReader.close();
-			} catch (IOException ex) {
-				if (ioException == null) {
-					ioException = ex;
-				} else {
-					ioException.addSuppressed(ex);
-				}
-			}
+	/**
+	 * Fill the view with the next line instead of creating an {@code OutputLine}.
+	 *
+	 * @return false if there are no more lines
+	 */
+	boolean nextLine(OutputLineView view) {
+		if (!hasNext()) {
+			return false;
 		}
-		if (ioException != null) {
-			throw ioException;
+		current.fill(view);
+		current = null;
+		return true;
+	}
+
+	/**
+	 * Pass each remaining line to the handler through a single reused view.
+	 */
+	void forEachLine(LineHandler handler) {
+		final OutputLineView view = new OutputLineView(charset);
+		while (nextLine(view)) {
+			handler.handle(view.fd(), view);
 		}
 	}
 
+	@Override
+	public void close() throws IOException {
+		jash.close();
+	}
+
 }
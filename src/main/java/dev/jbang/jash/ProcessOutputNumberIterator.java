@@ -0,0 +1,121 @@
+/*-
+ *  § 
+ * jash
+ *    
+ * Copyright (C) 2020 OnGres, Inc.
+ *    
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * § §
+ */
+
+package dev.jbang.jash;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * Iterates over the whitespace separated numbers of the process stdout,
+ * parsing them from the output bytes. Other fds are drained and ignored.
+ */
+class ProcessOutputNumberIterator implements Closeable {
+
+	private final ProcessOutputRowIterator rows;
+	private OutputRow row = null;
+	private int field = 0;
+
+	ProcessOutputNumberIterator(ProcessOutputRowIterator rows) {
+		this.rows = rows;
+	}
+
+	boolean hasNext() {
+		while (row == null || field >= row.size()) {
+			if (!rows.hasNext()) {
+				return false;
+			}
+			row = rows.next();
+			field = 0;
+			if (row.fd() != Jash.STDOUT) {
+				row = null;
+			}
+		}
+		return true;
+	}
+
+	private OutputRow nextRow() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return row;
+	}
+
+	long nextLong() {
+		return nextRow().getLong(field++);
+	}
+
+	int nextInt() {
+		return nextRow().getInt(field++);
+	}
+
+	double nextDouble() {
+		return nextRow().getDouble(field++);
+	}
+
+	PrimitiveIterator.OfLong longs() {
+		return new PrimitiveIterator.OfLong() {
+			@Override
+			public boolean hasNext() {
+				return ProcessOutputNumberIterator.this.hasNext();
+			}
+
+			@Override
+			public long nextLong() {
+				return ProcessOutputNumberIterator.this.nextLong();
+			}
+		};
+	}
+
+	PrimitiveIterator.OfInt ints() {
+		return new PrimitiveIterator.OfInt() {
+			@Override
+			public boolean hasNext() {
+				return ProcessOutputNumberIterator.this.hasNext();
+			}
+
+			@Override
+			public int nextInt() {
+				return ProcessOutputNumberIterator.this.nextInt();
+			}
+		};
+	}
+
+	PrimitiveIterator.OfDouble doubles() {
+		return new PrimitiveIterator.OfDouble() {
+			@Override
+			public boolean hasNext() {
+				return ProcessOutputNumberIterator.this.hasNext();
+			}
+
+			@Override
+			public double nextDouble() {
+				return ProcessOutputNumberIterator.this.nextDouble();
+			}
+		};
+	}
+
+	@Override
+	public void close() throws IOException {
+		rows.close();
+	}
+}
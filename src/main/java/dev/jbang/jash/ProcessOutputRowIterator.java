@@ -0,0 +1,88 @@
+/*-
+ *  § 
+ * jash
+ *    
+ * Copyright (C) 2020 OnGres, Inc.
+ *    
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * § §
+ */
+
+package dev.jbang.jash;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over the rows of the process output moving a single
+ * {@code OutputRow} cursor over the lines.
+ */
+class ProcessOutputRowIterator implements Iterator<OutputRow>, Closeable {
+
+	private final ProcessOutputLineIterator lines;
+	private final OutputLineView line;
+	private final OutputRow row;
+	private boolean linePending = false;
+	private boolean ready = false;
+
+	ProcessOutputRowIterator(ProcessOutputLineIterator lines, FieldSpec spec, Charset charset) {
+		this.lines = lines;
+		this.line = new OutputLineView(charset);
+		this.row = new OutputRow(spec, charset);
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (ready) {
+			return true;
+		}
+		if (!linePending && !lines.nextLine(line)) {
+			return false;
+		}
+		linePending = false;
+		row.set(line);
+		// a quoted field may continue in the next lines of the same fd, the row is
+		// copied first since the bytes of the current line may be released
+		while (row.isUnterminated()) {
+			row.detach();
+			if (!lines.nextLine(line)) {
+				break;
+			}
+			if (line.fd() != row.fd()) {
+				linePending = true;
+				break;
+			}
+			row.append(line);
+		}
+		ready = true;
+		return true;
+	}
+
+	@Override
+	public OutputRow next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+
+		ready = false;
+		return row;
+	}
+
+	@Override
+	public void close() throws IOException {
+		lines.close();
+	}
+}
@@ -0,0 +1,119 @@
+/*-
+ *  § 
+ * jash
+ *    
+ * Copyright (C) 2020 OnGres, Inc.
+ *    
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * § §
+ */
+
+package dev.jbang.jash;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * A {@code Spliterator} over the process output that can be split for parallel
+ * streams.
+ * <p>
+ * The output is read by a single thread at a time, {@code trySplit()} reads the
+ * next batch of elements and hands it off as an array based spliterator, so the
+ * work on each batch can run in the {@code ForkJoinPool} while the thread that
+ * splits keeps draining the process output. Unlike the spliterator returned by
+ * {@code Spliterators.spliteratorUnknownSize} the batches have a fixed size, so
+ * the first elements reach the pool as soon as a batch is read instead of after
+ * batches of growing size are filled.
+ * </p>
+ */
+class ProcessOutputSpliterator<T> implements Spliterator<T> {
+
+	static final int DEFAULT_BATCH_SIZE = 1024;
+
+	private final Iterator<T> iterator;
+	private final int batchSize;
+	private final int characteristics;
+
+	ProcessOutputSpliterator(Iterator<T> iterator, int batchSize, int characteristics) {
+		this.iterator = iterator;
+		this.batchSize = batchSize;
+		this.characteristics = characteristics | Spliterator.NONNULL;
+	}
+
+	@Override
+	public boolean tryAdvance(Consumer<? super T> action) {
+		if (!iterator.hasNext()) {
+			return false;
+		}
+		action.accept(iterator.next());
+		return true;
+	}
+
+	@Override
+	public void forEachRemaining(Consumer<? super T> action) {
+		iterator.forEachRemaining(action);
+	}
+
+	@Override
+	public Spliterator<T> trySplit() {
+		final Object[] batch = new Object[batchSize];
+		int size = 0;
+		while (size < batchSize && iterator.hasNext()) {
+			batch[size++] = iterator.next();
+		}
+		if (size == 0) {
+			return null;
+		}
+		return Spliterators.spliterator(batch, 0, size, characteristics);
+	}
+
+	/**
+	 * Group the elements of the iterator in lists of the specified size, the last
+	 * one may be smaller.
+	 */
+	static <T> Iterator<List<T>> batches(Iterator<T> iterator, int size) {
+		return new Iterator<List<T>>() {
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+
+			@Override
+			public List<T> next() {
+				if (!iterator.hasNext()) {
+					throw new NoSuchElementException();
+				}
+				final List<T> batch = new ArrayList<>(size);
+				while (batch.size() < size && iterator.hasNext()) {
+					batch.add(iterator.next());
+				}
+				return batch;
+			}
+		};
+	}
+
+	@Override
+	public long estimateSize() {
+		return Long.MAX_VALUE;
+	}
+
+	@Override
+	public int characteristics() {
+		return characteristics;
+	}
+}
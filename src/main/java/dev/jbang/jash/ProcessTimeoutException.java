@@ -35,6 +35,11 @@ public class ProcessTimeoutException extends ProcessException {
 		this.timeout = timeout;
 	}
 
+	protected ProcessTimeoutException(String message, Duration timeout, Collection<String> args) {
+		super(message, 1, args);
+		this.timeout = timeout;
+	}
+
 	private static String buildMessage(Duration timeout, Collection<String> args) {
 		return "Command " + args.stream().collect(Collectors.joining(" "))
 				+ " timeout after " + timeout.toString();
@@ -0,0 +1,206 @@
+/*-
+ *  § 
+ * jash
+ *    
+ * Copyright (C) 2020 OnGres, Inc.
+ *    
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * § §
+ */
+
+package dev.jbang.jash;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the pumps that copy data to the stdin of a process, like the ones
+ * started by {@link Jash#pipe(Jash)} or {@link Jash#inputStream(java.io.InputStream)}.
+ * <p>
+ * Pumps block writing to a pipe for as long as the process does not read it,
+ * so they must not run on the common {@code ForkJoinPool} where they would
+ * starve parallel streams. By default they run on virtual threads when the JVM
+ * supports them (Java 21 or later) and on a bounded pool of daemon threads
+ * otherwise. Once the bounded pool is full new pumps wait for a thread, so its
+ * size must be higher than the number of pipes expected to be blocked at once.
+ * </p>
+ * <p>
+ * Every {@code PumpExecutor} counts the pumps it runs so that they can be
+ * monitored.
+ * </p>
+ */
+public final class PumpExecutor implements Executor {
+
+	/**
+	 * Size of the default bounded pool, used when virtual threads are not
+	 * available.
+	 */
+	public static final int DEFAULT_MAX_THREADS = 256;
+
+	private static final long KEEP_ALIVE_SECONDS = 60;
+
+	private static volatile PumpExecutor defaultExecutor;
+
+	private final Executor delegate;
+	private final boolean virtual;
+	private final AtomicInteger queued = new AtomicInteger();
+	private final AtomicInteger active = new AtomicInteger();
+	private final AtomicLong completed = new AtomicLong();
+
+	private PumpExecutor(Executor delegate, boolean virtual) {
+		this.delegate = delegate;
+		this.virtual = virtual;
+	}
+
+	/**
+	 * Return the executor used when none is specified to {@code JashBuilder} or to
+	 * the methods starting a pump.
+	 */
+	public static PumpExecutor getDefault() {
+		PumpExecutor executor = defaultExecutor;
+		if (executor == null) {
+			synchronized (PumpExecutor.class) {
+				executor = defaultExecutor;
+				if (executor == null) {
+					executor = virtualThreads();
+					if (executor == null) {
+						executor = bounded(DEFAULT_MAX_THREADS);
+					}
+					defaultExecutor = executor;
+				}
+			}
+		}
+		return executor;
+	}
+
+	/**
+	 * Replace the executor used when none is specified, pumps already running are
+	 * not affected.
+	 */
+	public static void setDefault(PumpExecutor executor) {
+		if (executor == null) {
+			throw new IllegalArgumentException("The executor can not be null");
+		}
+		defaultExecutor = executor;
+	}
+
+	/**
+	 * Run the pumps on the specified executor.
+	 */
+	public static PumpExecutor of(Executor executor) {
+		if (executor instanceof PumpExecutor) {
+			return (PumpExecutor) executor;
+		}
+		return new PumpExecutor(executor, false);
+	}
+
+	/**
+	 * Run the pumps on a pool of at most the specified number of daemon threads,
+	 * threads idle for a minute are stopped.
+	 */
+	public static PumpExecutor bounded(int maxThreads) {
+		final AtomicInteger index = new AtomicInteger();
+		final ThreadFactory threadFactory = runnable -> {
+			Thread thread = new Thread(runnable, "jash-pump-" + index.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		};
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads,
+				KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), threadFactory);
+		executor.allowCoreThreadTimeOut(true);
+		return new PumpExecutor(executor, false);
+	}
+
+	/**
+	 * Run each pump on a new virtual thread.
+	 *
+	 * @return the executor or {@code null} if the JVM does not support virtual
+	 *         threads
+	 */
+	public static PumpExecutor virtualThreads() {
+		try {
+			// Thread.ofVirtual().name("jash-pump-", 0).factory() available since Java 21
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "jash-pump-", 0L);
+			ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+			Method newExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+			return new PumpExecutor((ExecutorService) newExecutor.invoke(null, threadFactory), true);
+		} catch (ReflectiveOperationException | RuntimeException ex) {
+			return null;
+		}
+	}
+
+	@Override
+	public void execute(Runnable pump) {
+		queued.incrementAndGet();
+		try {
+			delegate.execute(() -> {
+				queued.decrementAndGet();
+				active.incrementAndGet();
+				try {
+					pump.run();
+				} finally {
+					active.decrementAndGet();
+					completed.incrementAndGet();
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			queued.decrementAndGet();
+			throw ex;
+		}
+	}
+
+	/**
+	 * Return true if pumps run on virtual threads.
+	 */
+	public boolean isVirtual() {
+		return virtual;
+	}
+
+	/**
+	 * Return the number of pumps waiting for a thread.
+	 */
+	public int queuedPumps() {
+		return queued.get();
+	}
+
+	/**
+	 * Return the number of pumps running.
+	 */
+	public int activePumps() {
+		return active.get();
+	}
+
+	/**
+	 * Return the number of pumps that finished, successfully or not.
+	 */
+	public long completedPumps() {
+		return completed.get();
+	}
+
+	@Override
+	public String toString() {
+		return "PumpExecutor[virtual=" + virtual + ", queued=" + queuedPumps() + ", active=" + activePumps()
+				+ ", completed=" + completedPumps() + "]";
+	}
+}
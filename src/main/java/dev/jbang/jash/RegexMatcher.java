@@ -0,0 +1,58 @@
+/*-
+ *  § 
+ * jash
+ *    
+ * Copyright (C) 2020 OnGres, Inc.
+ *    
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * § §
+ */
+
+package dev.jbang.jash;
+
+import java.nio.ByteBuffer;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Matches a regular expression reusing a single {@code Matcher} over the
+ * reused line view, so that no object is created for lines that do not match.
+ */
+class RegexMatcher implements LineMatcher {
+
+	private final Matcher matcher;
+
+	RegexMatcher(Pattern pattern) {
+		this.matcher = pattern.matcher("");
+	}
+
+	@Override
+	public int find(ByteBuffer words, int from, int to) {
+		return from;
+	}
+
+	@Override
+	public boolean matches(OutputLineView line) {
+		return matcher	.reset(line)
+						.find();
+	}
+
+	@Override
+	public void forEachMatch(OutputLineView line, MatchHandler handler) {
+		matcher.reset(line);
+		while (matcher.find()) {
+			handler.onMatch(line.fd(), line.streamOffset() + line.byteIndex(matcher.start()), 0, line);
+		}
+	}
+}
@@ -0,0 +1,89 @@
+/*-
+ *  § 
+ * jash
+ *    
+ * Copyright (C) 2020 OnGres, Inc.
+ *    
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * § §
+ */
+
+package dev.jbang.jash;
+
+import java.time.Duration;
+
+/**
+ * Strategy used by the process output readers when there is no data to read.
+ * <p>
+ * Latency critical readers may prefer to spin or yield, while a lot of slow
+ * processes are better served by parking or blocking. The default is
+ * {@link #blocking()}.
+ * </p>
+ */
+@FunctionalInterface
+public interface WaitStrategy {
+
+	/**
+	 * Called each time a reader found no data to read.
+	 *
+	 * @param attempt  number of consecutive times the reader found no data,
+	 *                 starting from 0
+	 * @param maxNanos maximum time the reader is allowed to wait
+	 * @param blocker  blocks the caller until the output changes or the specified
+	 *                 time elapses
+	 */
+	void idle(int attempt, long maxNanos, Blocker blocker) throws InterruptedException;
+
+	@FunctionalInterface
+	interface Blocker {
+		void block(long nanos) throws InterruptedException;
+	}
+
+	/**
+	 * Return immediately, burning a core while waiting but reacting as soon as data
+	 * is available.
+	 */
+	static WaitStrategy busySpin() {
+		return BusySpinWaitStrategy.INSTANCE;
+	}
+
+	/**
+	 * Yield the thread to other threads before trying again.
+	 */
+	static WaitStrategy yielding() {
+		return YieldingWaitStrategy.INSTANCE;
+	}
+
+	/**
+	 * Park the thread for an exponentially growing time, starting from 50
+	 * microseconds up to 10 milliseconds.
+	 */
+	static WaitStrategy backoff() {
+		return backoff(Duration.ofNanos(50_000), Duration.ofMillis(10));
+	}
+
+	/**
+	 * Park the thread for an exponentially growing time, starting from the minimum
+	 * up to the maximum specified.
+	 */
+	static WaitStrategy backoff(Duration min, Duration max) {
+		return new BackoffWaitStrategy(min.toNanos(), max.toNanos());
+	}
+
+	/**
+	 * Block until the output changes. This is the default.
+	 */
+	static WaitStrategy blocking() {
+		return BlockingWaitStrategy.INSTANCE;
+	}
+}
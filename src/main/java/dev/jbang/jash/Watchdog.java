@@ -0,0 +1,268 @@
+/*-
+ *  § 
+ * jash
+ *    
+ * Copyright (C) 2020 OnGres, Inc.
+ *    
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * § §
+ */
+
+package dev.jbang.jash;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Fires the deadlines of all the processes from a single daemon thread.
+ * <p>
+ * Deadlines are kept in a hashed timer wheel: a ring of buckets each covering
+ * one tick, a deadline goes in the bucket of the tick it expires at and counts
+ * the number of turns of the wheel left before that. Scheduling and cancelling
+ * are constant time and each tick only looks at one bucket, so tens of
+ * thousands of pending deadlines cost nothing to the threads that do not
+ * expire. Cancelled deadlines are only marked, they are dropped from their
+ * bucket the next time the wheel goes over it.
+ * </p>
+ * <p>
+ * The thread is started the first time a deadline is scheduled and parks
+ * without ticking while there are no pending deadlines.
+ * </p>
+ */
+final class Watchdog implements Runnable {
+
+	static final Watchdog INSTANCE = new Watchdog(TimeUnit.MILLISECONDS.toNanos(10), 512);
+
+	/**
+	 * The longest delay a deadline can be scheduled with, more than seventy years,
+	 * so that adding it to a {@code System.nanoTime()} value can not overflow.
+	 */
+	static final long MAX_DELAY_NANOS = Long.MAX_VALUE >> 2;
+
+	private final long tickNanos;
+	private final Deadline[] buckets;
+	private final int mask;
+	private final ConcurrentLinkedQueue<Deadline> scheduled = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger pending = new AtomicInteger();
+	private volatile Thread thread;
+
+	Watchdog(long tickNanos, int wheelSize) {
+		if (Integer.bitCount(wheelSize) != 1) {
+			throw new IllegalArgumentException("The wheel size must be a power of two");
+		}
+		this.tickNanos = tickNanos;
+		this.buckets = new Deadline[wheelSize];
+		this.mask = wheelSize - 1;
+	}
+
+	/**
+	 * Schedule the action to run on the watchdog thread once the specified value
+	 * of {@code System.nanoTime()} is reached, unless the returned deadline is
+	 * cancelled before. The action must not block.
+	 */
+	Deadline schedule(long deadlineNanos, Consumer<Deadline> action) {
+		final Deadline deadline = new Deadline(deadlineNanos, action);
+		scheduled.add(deadline);
+		if (pending.getAndIncrement() == 0) {
+			LockSupport.unpark(thread());
+		}
+		return deadline;
+	}
+
+	/**
+	 * Return the number of deadlines that did not expire and were not cancelled.
+	 */
+	int pending() {
+		return pending.get();
+	}
+
+	private Thread thread() {
+		Thread current = thread;
+		if (current == null) {
+			synchronized (this) {
+				current = thread;
+				if (current == null) {
+					current = new Thread(this, "jash-watchdog");
+					current.setDaemon(true);
+					current.start();
+					thread = current;
+				}
+			}
+		}
+		return current;
+	}
+
+	@Override
+	public void run() {
+		long base = System.nanoTime();
+		long tick = 0;
+		while (true) {
+			if (pending.get() == 0) {
+				// only cancelled deadlines are left in the wheel
+				Arrays.fill(buckets, null);
+				LockSupport.park(this);
+				base = System.nanoTime();
+				tick = 0;
+				continue;
+			}
+			transferScheduled(base, tick);
+			expireBucket((int) (tick & mask));
+			tick++;
+			final long sleepNanos = base + tick * tickNanos - System.nanoTime();
+			if (sleepNanos > 0) {
+				LockSupport.parkNanos(this, sleepNanos);
+			}
+		}
+	}
+
+	private void transferScheduled(long base, long tick) {
+		Deadline deadline;
+		while ((deadline = scheduled.poll()) != null) {
+			if (deadline.state != Deadline.PENDING) {
+				continue;
+			}
+			// the tick is processed once its start is reached, so round up without
+			// adding to the delay that may be close to overflowing
+			final long delay = Math.max(0, deadline.deadlineNanos - base);
+			final long ticks = Math.max(tick, delay / tickNanos + (delay % tickNanos == 0 ? 0 : 1));
+			deadline.rounds = (ticks - tick) / buckets.length;
+			final int index = (int) (ticks & mask);
+			deadline.next = buckets[index];
+			buckets[index] = deadline;
+		}
+	}
+
+	private void expireBucket(int index) {
+		Deadline previous = null;
+		Deadline deadline = buckets[index];
+		while (deadline != null) {
+			final Deadline next = deadline.next;
+			boolean remove = true;
+			if (deadline.state == Deadline.PENDING) {
+				if (deadline.rounds > 0) {
+					deadline.rounds--;
+					remove = false;
+				} else {
+					deadline.fire();
+				}
+			}
+			if (remove) {
+				deadline.next = null;
+				if (previous == null) {
+					buckets[index] = next;
+				} else {
+					previous.next = next;
+				}
+			} else {
+				previous = deadline;
+			}
+			deadline = next;
+		}
+	}
+
+	/**
+	 * A deadline scheduled on the {@code Watchdog}.
+	 */
+	final class Deadline {
+
+		private static final int PENDING = 0;
+		private static final int CANCELLED = 1;
+		private static final int FIRED = 2;
+
+		private long deadlineNanos;
+		private final Consumer<Deadline> action;
+		// not private for the field updater, Java 8 has no nestmates
+		volatile int state = PENDING;
+		private volatile boolean expired = false;
+		private volatile boolean superseded = false;
+		private long rounds;
+		private Deadline next;
+
+		private Deadline(long deadlineNanos, Consumer<Deadline> action) {
+			this.deadlineNanos = deadlineNanos;
+			this.action = action;
+		}
+
+		/**
+		 * Do not run the action, has no effect if it already ran.
+		 */
+		void cancel() {
+			if (STATE.compareAndSet(this, PENDING, CANCELLED)) {
+				pending.decrementAndGet();
+			} else {
+				// the action may be running and about to reschedule
+				STATE.compareAndSet(this, FIRED, CANCELLED);
+			}
+		}
+
+		/**
+		 * Schedule the action again, to be called by the action when the condition it
+		 * checks is not met yet. Has no effect if the deadline was cancelled.
+		 */
+		void reschedule(long deadlineNanos) {
+			this.deadlineNanos = deadlineNanos;
+			if (STATE.compareAndSet(this, FIRED, PENDING)) {
+				scheduled.add(this);
+				pending.incrementAndGet();
+			}
+		}
+
+		/**
+		 * Mark the deadline as expired, to be called by the action when it actually
+		 * acted on the expiration.
+		 */
+		void expire() {
+			expired = true;
+		}
+
+		/**
+		 * Return true if the action marked the deadline as expired, a single volatile
+		 * read that is cheap enough to be done for each line read.
+		 */
+		boolean isExpired() {
+			return expired;
+		}
+
+		/**
+		 * Mark that another deadline took over, the action still runs but should only
+		 * record the expiration.
+		 */
+		void supersede() {
+			superseded = true;
+		}
+
+		boolean isSuperseded() {
+			return superseded;
+		}
+
+		private void fire() {
+			if (!STATE.compareAndSet(this, PENDING, FIRED)) {
+				return;
+			}
+			pending.decrementAndGet();
+			try {
+				action.accept(this);
+			} catch (RuntimeException ex) {
+				// a failing action must not stop the deadlines of the other processes
+			}
+		}
+	}
+
+	private static final AtomicIntegerFieldUpdater<Deadline> STATE = AtomicIntegerFieldUpdater
+			.newUpdater(Deadline.class, "state");
+}
@@ -26,10 +26,27 @@ import static org.assertj.core.api.Assertions.catchThrowableOfType;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import org.junit.jupiter.api.Assertions;
@@ -133,6 +150,194 @@ public class JashIT {
 								.isEqualTo("hello world");
 	}
 
+	@Test
+	public void testPipeline() throws Exception {
+		assertThat(Jash	.builder("sh", "-c", "echo b; echo a; echo b")
+						.pipe("sort")
+						.pipe$("uniq -c")
+						.start()
+						.stream()
+						.map(String::trim)
+						.collect(Collectors.toList()))
+														.containsExactly("1 a", "2 b");
+		assertThrows(ProcessException.class,
+				() -> Jash	.builder("sh", "-c", "echo hello; exit 3")
+							.pipe("cat")
+							.start()
+							.get());
+	}
+
+	@Test
+	public void testPipelineLastStageExitsEarly() throws Exception {
+		assertThat(Jash	.builder("yes")
+						.pipe("head", "-1")
+						.start()
+						.get())
+								.isEqualTo("y");
+	}
+
+	@Test
+	public void testPipelineFailingMiddleStage() throws Exception {
+		ProcessException ex = catchThrowableOfType(
+				() -> Jash	.builder("seq", "1", "10")
+							.pipe("sh", "-c", "cat; exit 3")
+							.pipe("cat")
+							.start()
+							.get(),
+				ProcessException.class);
+		assertThat(ex.getExitCode()).isEqualTo(3);
+	}
+
+	@Test
+	public void testPipelineStderrHeavyStage() throws Exception {
+		assertThat(Jash	.builder("sh", "-c", "seq 1 100000 >&2; echo x")
+						.pipe("cat")
+						.start()
+						.get())
+								.isEqualTo("x");
+	}
+
+	@Test
+	public void testStdoutTo() throws Exception {
+		Path path = Files.createTempFile("jash", ".out");
+		try {
+			assertThat(Jash	.builder("sh", "-c", "echo hello; echo error >&2")
+							.stdoutTo(path)
+							.start()
+							.get())
+									.isEqualTo("error");
+			Jash.builder("echo", "world")
+				.appendStdoutTo(path)
+				.start()
+				.join();
+			assertThat(new String(Files.readAllBytes(path), StandardCharsets.UTF_8)).isEqualTo("hello\nworld\n");
+			assertThrows(ProcessException.class,
+					() -> Jash	.builder("sh", "-c", "echo hello; exit 2")
+								.stdoutTo(path)
+								.start()
+								.join());
+			Jash.start("seq", "1", "100000")
+				.writeToOutputStream(new FileOutputStream(path.toFile()));
+			assertThat(Files.size(path)).isEqualTo(588895);
+			Jash.start("sh", "-c", "seq 1 100000 >&2; echo ok")
+				.writeToOutputStream(new FileOutputStream(path.toFile()));
+			assertThat(new String(Files.readAllBytes(path), StandardCharsets.UTF_8)).isEqualTo("ok\n");
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+	@Test
+	public void testStdinFrom() throws Exception {
+		Path path = Files.createTempFile("jash", ".in");
+		try {
+			Files.write(path, "world\nhello\n".getBytes(StandardCharsets.UTF_8));
+			assertThat(Jash	.builder("sort")
+							.stdinFrom(path)
+							.start()
+							.get())
+									.isEqualTo("hello\nworld");
+			assertThat(Jash	.start("sort")
+							.inputStream(new FileInputStream(path.toFile()))
+							.get())
+									.isEqualTo("hello\nworld");
+		} finally {
+			Files.delete(path);
+		}
+	}
+
+	@Test
+	public void testSuppressedOutput() throws Exception {
+		String chatty = "head -c 1000000 /dev/zero >&2; echo done";
+		assertThat(Jash	.builder("sh", "-c", chatty)
+						.noStderr()
+						.start()
+						.get())
+								.isEqualTo("done");
+		assertThat(Jash	.start("sh", "-c", chatty)
+						.withoutStderr()
+						.get())
+								.isEqualTo("done");
+		assertThat(Jash	.start("sh", "-c", "echo out; sleep 0.1; echo err >&2")
+						.withStderrToStdout()
+						.streamOutputLines()
+						.map(OutputLine::toString)
+						.collect(Collectors.toList()))
+														.containsExactly("1:out", "1:err");
+		assertThrows(ProcessException.class,
+				() -> Jash	.builder("sh", "-c", "seq 1 100000; exit 3")
+							.noStdout()
+							.noStderr()
+							.start()
+							.join());
+	}
+
+	@Test
+	public void testRedirectStderrToStdout() throws Exception {
+		assertThat(Jash	.builder("sh", "-c", "for i in $(seq 1 1000); do echo out$i; echo err$i >&2; done")
+						.redirectStderrToStdout()
+						.start()
+						.streamOutputLines()
+						.map(OutputLine::toString)
+						.collect(Collectors.toList()))
+														.isEqualTo(IntStream	.rangeClosed(1, 1000)
+																				.boxed()
+																				.flatMap(index -> Stream.of(
+																						"1:out" + index,
+																						"1:err" + index))
+																				.collect(Collectors.toList()));
+	}
+
+	@Test
+	public void testCaptureOutput() throws Exception {
+		Jash jash = Jash.builder("sh", "-c", "seq 1 100000; echo failed >&2; exit 3")
+						.captureOutput(10, 20)
+						.start();
+		ProcessException ex = catchThrowableOfType(jash::join, ProcessException.class);
+		assertThat(ex.getOutputTail()).isPresent();
+		assertThat(ex.getMessage()).contains("failed");
+		assertThat(jash.outputTail().head(Jash.STDOUT)).isEqualTo("1\n2\n3\n4\n5\n");
+		assertThat(jash.outputTail().droppedBytes(Jash.STDOUT)).isEqualTo(588865L);
+		assertThat(jash	.tail(2)
+						.stream()
+						.map(OutputLine::toString)
+						.collect(Collectors.toList())).containsExactly("1:99999", "1:100000", "2:failed");
+	}
+
+	@Test
+	public void testCaptureOutputTailOnLineStart() throws Exception {
+		Jash jash = Jash.builder("printf", "aaaa\\nbbbb\\ncccc\\n")
+						.captureOutput(0, 10)
+						.start();
+		jash.join();
+		assertThat(jash	.tail(5)
+						.stream()
+						.map(OutputLine::toString)
+						.collect(Collectors.toList())).containsExactly("1:bbbb", "1:cccc");
+	}
+
+	@Test
+	public void testCapture() throws Exception {
+		Path path;
+		try (CapturedOutput output = Jash.start("seq", "1", "100000").capture(10000)) {
+			assertThat(output.isSpilled()).isTrue();
+			path = output.path();
+			assertThat(Files.size(path)).isEqualTo(output.size());
+			assertThat(output.map().get(0)).isEqualTo((byte) '1');
+			try (Stream<String> lines = output.lines()) {
+				assertThat(lines.count()).isEqualTo(100000L);
+			}
+		}
+		assertThat(path).doesNotExist();
+	}
+
+	@Test
+	public void testCaptureWithChattyStderr() throws Exception {
+		try (CapturedOutput output = Jash.$("seq 1 100000 >&2; echo ok").capture()) {
+			assertThat(output.lines()).containsExactly("ok");
+		}
+	}
+
 	@Test
 	public void testEnvironment() throws Exception {
 		assertThat(Jash	.builder("env")
@@ -163,6 +368,54 @@ public class JashIT {
 																					.isEqualTo("hello world\n");
 	}
 
+	@Test
+	public void testStreamOutputDataRelease() throws Exception {
+		assertThat(Jash	.start("sh", "-c", "seq 1 100000")
+						.streamOutputData()
+						.mapToLong(data -> {
+							try {
+								return data.length();
+							} finally {
+								data.release();
+								assertThat(data.isReleased()).isTrue();
+							}
+						})
+						.sum())
+								.isEqualTo(588895);
+	}
+
+	@Test
+	public void testOutputDataBufferIsAView() throws Exception {
+		OutputData data = Jash	.start("sh", "-c", "printf hello")
+								.streamOutputData()
+								.findFirst()
+								.get();
+		ByteBuffer buffer = data.buffer();
+		assertThat(buffer.isReadOnly()).isTrue();
+		assertThat(buffer.remaining()).isEqualTo(5);
+		data.array()[0] = 'j';
+		assertThat(buffer.get(0)).isEqualTo((byte) 'j');
+		data.release();
+		Assertions.assertThrows(IllegalStateException.class, data::buffer);
+	}
+
+	@Test
+	public void testStreamStdoutBuffers() throws Exception {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		WritableByteChannel channel = Channels.newChannel(outputStream);
+		Jash.start("sh", "-c", "echo hello world; echo error >&2")
+			.streamStdoutBuffers()
+			.forEach(buffer -> {
+				try {
+					channel.write(buffer);
+				} catch (IOException ex) {
+					throw new RuntimeException(ex);
+				}
+			});
+		assertThat(new String(outputStream.toByteArray(), StandardCharsets.UTF_8))
+																					.isEqualTo("hello world\n");
+	}
+
 	@Test
 	public void testError() throws Exception {
 
@@ -286,6 +539,192 @@ public class JashIT {
 									.isEqualTo(1);
 	}
 
+	@Test
+	public void testStreamLineTerminators() throws Exception {
+		assertThat(Jash	.start("sh", "-c", "printf 'a\\r\\nb\\n\\nc\\rd'")
+						.stream()
+						.collect(Collectors.toList()))
+														.containsExactly("a", "b", "", "c", "d");
+	}
+
+	@Test
+	public void testStreamRecords() throws Exception {
+		assertThat(Jash	.start("sh", "-c", "printf 'hello world\\0'; sleep 0.1; printf '\\0a\\nb\\0c'")
+						.streamRecords((byte) 0)
+						.map(record -> new String(record, StandardCharsets.UTF_8))
+						.collect(Collectors.toList()))
+														.containsExactly("hello world", "", "a\nb", "c");
+	}
+
+	@Test
+	public void testStreamRecordsDelimiterSplitAcrossReads() throws Exception {
+		assertThat(Jash	.start("sh", "-c", "printf 'hello\\r'; sleep 0.1; printf '\\nworld\\r\\n'")
+						.streamRecords("\r\n".getBytes(StandardCharsets.UTF_8))
+						.map(record -> new String(record, StandardCharsets.UTF_8))
+						.collect(Collectors.toList()))
+														.containsExactly("hello", "world");
+	}
+
+	@Test
+	public void testInputStreamOfRecords() throws Exception {
+		assertThat(Jash	.start("xargs", "-0", "-n1", "echo")
+						.inputStreamOfRecords(Stream.of("hello world", "a\nb")
+													.map(record -> record.getBytes(StandardCharsets.UTF_8)),
+								new byte[] { 0 })
+						.stream()
+						.collect(Collectors.toList()))
+														.containsExactly("hello world", "a", "b");
+	}
+
+	@Test
+	public void testStreamRows() throws Exception {
+		assertThat(Jash	.start("sh", "-c", "printf 'PID  CMD\\n  42 sh -c\\n'")
+						.streamRows(FieldSpec.whitespace())
+						.skip(1)
+						.map(row -> row.getLong(0) + ":" + row.getString(1) + ":" + row.size())
+						.collect(Collectors.toList()))
+																		.containsExactly("42:sh:3");
+		assertThat(Jash	.start("sh", "-c", "printf 'a\\t\\t1.5\\n'")
+						.streamRows(FieldSpec.tsv())
+						.map(row -> row.getString(0) + ":" + row.isEmpty(1) + ":" + row.getDouble(2))
+						.collect(Collectors.toList()))
+																		.containsExactly("a:true:1.5");
+	}
+
+	@Test
+	public void testStreamRowsCsv() throws Exception {
+		assertThat(Jash	.start("sh", "-c", "printf 'a,\"b,\"\"c\"\"\",\"multi\\n'; sleep 0.1; printf 'line\",-7\\n'")
+						.streamRows(FieldSpec.csv())
+						.map(OutputRow::toString)
+						.collect(Collectors.toList()))
+																		.containsExactly(
+																				"1:[a, b,\"c\", multi\nline, -7]");
+	}
+
+	@Test
+	public void testStreamRowsAllocatesLessThanSplit() throws Exception {
+		com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory
+																											.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		String command = "seq 1 100000 | awk '{print $1, $1 * 2, \"abc\"}'";
+		long rowsAllocated = 0;
+		long splitAllocated = 0;
+		// the first runs warm up the JIT
+		for (int i = 0; i < 3; i++) {
+			Jash rowsJash = Jash.start("sh", "-c", command);
+			long before = threadMXBean.getThreadAllocatedBytes(threadId);
+			long rowsSum = rowsJash	.streamRows(FieldSpec.whitespace())
+									.mapToLong(row -> row.getLong(1))
+									.sum();
+			rowsAllocated = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+			Jash splitJash = Jash.start("sh", "-c", command);
+			before = threadMXBean.getThreadAllocatedBytes(threadId);
+			long splitSum = splitJash	.stream()
+										.map(line -> line.split(" "))
+										.mapToLong(fields -> Long.parseLong(fields[1]))
+										.sum();
+			splitAllocated = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+			assertThat(rowsSum).isEqualTo(splitSum);
+		}
+		assertThat(rowsAllocated).isLessThan(splitAllocated / 10);
+	}
+
+	@Test
+	public void testStreamNumbers() throws Exception {
+		assertThat(Jash	.start("sh", "-c", "printf '1 2\\n\\n -3\\t4\\n'; echo ignored >&2")
+						.streamLongs()
+						.boxed()
+						.collect(Collectors.toList()))
+														.containsExactly(1L, 2L, -3L, 4L);
+		assertThat(Jash.start("sh", "-c", "echo 1 2 3").streamInts().sum()).isEqualTo(6);
+		assertThat(Jash.start("sh", "-c", "echo 1.5 2.25").sumDoubles()).isEqualTo(3.75);
+		assertThat(Jash.start("seq", "1", "100000").sumLongs()).isEqualTo(5000050000L);
+	}
+
+	@Test
+	public void testStreamNumbersReportsByteOffset() throws Exception {
+		NumberFormatException exception = catchThrowableOfType(
+				() -> Jash.start("sh", "-c", "printf '1 2 1'; sleep 0.1; printf '2x 5'").sumLongs(),
+				NumberFormatException.class);
+		assertThat(exception.getMessage()).isEqualTo("For input string: \"12x\" at byte 4 of fd 1");
+	}
+
+	@Test
+	public void testStreamParallel() throws Exception {
+		assertThat(Jash	.start("seq", "1", "100000")
+						.stream()
+						.parallel()
+						.collect(Collectors.toList()))
+														.isEqualTo(IntStream	.rangeClosed(1, 100000)
+																			.mapToObj(String::valueOf)
+																			.collect(Collectors.toList()));
+	}
+
+	@Test
+	public void testStreamLineBatches() throws Exception {
+		List<List<OutputLine>> batches = Jash	.start("seq", "1", "1050")
+												.streamLineBatches(100)
+												.collect(Collectors.toList());
+		assertThat(batches).hasSize(11);
+		assertThat(batches.get(10)).hasSize(50);
+		assertThat(batches.get(10).get(0).line()).isEqualTo("1001");
+		assertThat(Jash	.start("seq", "1", "100000")
+						.streamLineBatches(1000, false)
+						.mapToLong(batch -> batch.stream().mapToLong(line -> Long.parseLong(line.line())).sum())
+						.sum())
+								.isEqualTo(5000050000L);
+	}
+
+	@Test
+	public void testGrep() throws Exception {
+		assertThat(Jash	.start("sh", "-c", "printf 'ok\\nan ERROR here\\nERRO'; sleep 0.1; printf 'R\\nwarn\\n'")
+						.grep("ERROR", "warn")
+						.map(OutputLine::line)
+						.collect(Collectors.toList()))
+														.containsExactly("an ERROR here", "ERROR", "warn");
+		assertThat(Jash	.start("sh", "-c", "printf 'h\\303\\251llo 42\\nhello\\n'")
+						.grep(Pattern.compile("\\d+"))
+						.map(OutputLine::line)
+						.collect(Collectors.toList()))
+														.containsExactly("h\u00e9llo 42");
+	}
+
+	@Test
+	public void testForEachMatch() throws Exception {
+		List<String> matches = new ArrayList<>();
+		Jash.start("sh", "-c", "printf 'xhers\\nshe\\n'")
+			.forEachMatch(GrepPattern.literals("he", "she", "his", "hers"),
+					(fd, offset, patternId, line) -> matches.add(offset + ":" + patternId));
+		assertThat(matches).containsExactly("1:0", "1:3", "6:1", "7:0");
+	}
+
+	@Test
+	public void testStreamLongLines() throws Exception {
+		assertThat(Jash	.start("sh", "-c",
+				"printf 'the quick brown fox\\r\\njumps over the lazy dog \\303\\251\\303\\251\\rand again\\n'")
+						.stream()
+						.collect(Collectors.toList()))
+														.containsExactly("the quick brown fox",
+																"jumps over the lazy dog \u00e9\u00e9", "and again");
+	}
+
+	@Test
+	public void testStreamMultibyteSplitAcrossReads() throws Exception {
+		assertThat(Jash	.start("sh", "-c", "printf 'h\\303'; sleep 0.1; printf '\\251llo\\n'")
+						.stream()
+						.collect(Collectors.toList()))
+														.containsExactly("h\u00e9llo");
+	}
+
+	@Test
+	public void testCharset() throws Exception {
+		assertThat(Jash	.builder("sh", "-c", "printf 'h\\351llo'")
+						.charset(StandardCharsets.ISO_8859_1)
+						.start()
+						.get())
+								.isEqualTo("h\u00e9llo");
+	}
+
 	@Test
 	public void testStreamEmptyBuffer() throws Exception {
 		Assertions.assertTimeout(Duration.of(1, ChronoUnit.SECONDS),
@@ -297,6 +736,153 @@ public class JashIT {
 							.count()));
 	}
 
+	@Test
+	public void testStreamIdleProcessDoesNotSpin() throws Exception {
+		ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+		long cpuTime = threadMXBean.getCurrentThreadCpuTime();
+		assertThat(Jash	.start("sh", "-c", "sleep 1; echo hello world")
+						.stream()
+						.collect(Collectors.toList()))
+														.containsExactly("hello world");
+		assertThat(threadMXBean.getCurrentThreadCpuTime() - cpuTime)
+																	.isLessThan(Duration.of(200, ChronoUnit.MILLIS)
+																						.toNanos());
+	}
+
+	@Test
+	public void testForEachLine() throws Exception {
+		List<String> lines = new ArrayList<>();
+		Jash	.start("sh", "-c", "printf 'h\\303\\251llo\\r\\nworld'; sleep 0.1; echo error >&2")
+				.forEachLine((fd, line) -> lines.add(fd + ":" + line + ":" + line.length()));
+		assertThat(lines).containsExactly("1:h\u00e9llo:5", "1:world:5", "2:error:5");
+	}
+
+	@Test
+	public void testForEachLineDoesNotAllocatePerLine() throws Exception {
+		com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory
+																											.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		long allocated = 0;
+		long[] length = new long[1];
+		// the first runs warm up the JIT
+		for (int i = 0; i < 3; i++) {
+			Jash jash = Jash.start("seq", "1", "200000");
+			long before = threadMXBean.getThreadAllocatedBytes(threadId);
+			jash.forEachLine((fd, line) -> length[0] += line.length());
+			allocated = threadMXBean.getThreadAllocatedBytes(threadId) - before;
+		}
+		assertThat(length[0]).isEqualTo(3 * 1088895);
+		assertThat(allocated).isLessThan(200000);
+	}
+
+	@Test
+	public void testStreamWithBackgroundChild() throws Exception {
+		Assertions.assertTimeout(Duration.of(1, ChronoUnit.SECONDS),
+				() -> assertThat(Jash	.start("sh", "-c", "echo hello world; sleep 3 &")
+										.stream()
+										.collect(Collectors.toList()))
+																		.containsExactly("hello world"));
+	}
+
+	@Test
+	public void testWaitStrategies() throws Exception {
+		for (WaitStrategy waitStrategy : Arrays.asList(
+				WaitStrategy.busySpin(),
+				WaitStrategy.yielding(),
+				WaitStrategy.backoff(),
+				WaitStrategy.blocking())) {
+			assertThat(Jash	.start("sh", "-c", "sleep 0.1; echo hello; echo world")
+							.withWaitStrategy(waitStrategy)
+							.stream()
+							.collect(Collectors.toList()))
+															.containsExactly("hello", "world");
+			assertThat(Jash	.builder("sh", "-c", "echo hello world")
+							.waitStrategy(waitStrategy)
+							.start()
+							.streamBytes()
+							.count())
+										.isPositive();
+			Assertions.assertThrows(ProcessTimeoutException.class,
+					() -> Jash	.start("sh", "-c", "sleep 3600")
+								.withWaitStrategy(waitStrategy)
+								.withTimeout(Duration.of(10, ChronoUnit.MILLIS))
+								.stream()
+								.count());
+		}
+	}
+
+	@Test
+	public void testOutputArrivalOrder() throws Exception {
+		List<OutputLine> lines = Jash	.start("sh", "-c",
+				"echo a; sleep 0.05; echo b >&2; sleep 0.05; echo c; sleep 0.05; echo d >&2")
+										.streamOutputLines()
+										.collect(Collectors.toList());
+		assertThat(lines.stream().map(OutputLine::toString)).containsExactly("1:a", "2:b", "1:c", "2:d");
+		assertThat(lines.stream().map(line -> line.line)).containsExactly("a", "b", "c", "d");
+		for (int index = 1; index < lines.size(); index++) {
+			assertThat(lines.get(index).sequence()).isGreaterThan(lines.get(index - 1).sequence());
+			assertThat(lines.get(index).arrivalNanos()).isGreaterThan(lines.get(index - 1).arrivalNanos());
+		}
+		assertThat(Jash	.start("sh", "-c", "echo a; sleep 0.05; echo b >&2; sleep 0.05; echo c")
+						.streamOutputData()
+						.map(OutputData::toString))
+													.containsExactly("1:a\n", "2:b\n", "1:c\n");
+	}
+
+	@Test
+	public void testGetAsync() throws Exception {
+		Output output = Jash.start("sh", "-c", "echo hello; echo world; echo error >&2")
+							.getAsync()
+							.get(10, TimeUnit.SECONDS);
+		assertThat(output.output()).contains("hello\nworld");
+		assertThat(output.error()).contains("error");
+		ExecutionException exception = catchThrowableOfType(
+				() -> Jash.start("sh", "-c", "exit 3").getAsync().get(10, TimeUnit.SECONDS),
+				ExecutionException.class);
+		assertThat(exception.getCause()).isInstanceOf(ProcessException.class);
+	}
+
+	@Test
+	public void testExitCodeAsync() throws Exception {
+		assertThat(Jash	.start("sh", "-c", "seq 1 100000; exit 4")
+						.withAllowedExitCode(4)
+						.exitCodeAsync()
+						.get(10, TimeUnit.SECONDS))
+													.isEqualTo(4);
+		Jash jash = Jash.start("sh", "-c", "sleep 0.1");
+		assertThat(jash.onExit().get(10, TimeUnit.SECONDS)).isSameAs(jash);
+		assertThat(jash.isClosed()).isTrue();
+	}
+
+	@Test
+	public void testPumpExecutor() throws Exception {
+		PumpExecutor pumps = PumpExecutor.bounded(2);
+		assertThat(Jash	.builder("cat")
+						.pumpExecutor(pumps)
+						.start()
+						.inputStream(Stream.of("hello", "world"))
+						.get())
+								.isEqualTo("hello\nworld");
+		assertThat(pumps.activePumps()).isZero();
+		assertThat(pumps.completedPumps()).isEqualTo(1);
+	}
+
+	@Test
+	public void testMultiplexOutput() throws Exception {
+		List<Jash> processes = IntStream	.range(0, 20)
+											.mapToObj(index -> Jash	.builder("sh", "-c",
+													"echo " + index + "; sleep 0.1; echo " + index + " >&2")
+																	.multiplexOutput()
+																	.start())
+											.collect(Collectors.toList());
+		for (int index = 0; index < processes.size(); index++) {
+			assertThat(processes.get(index)
+									.stream()
+									.collect(Collectors.toList()))
+																	.containsExactly("" + index, "" + index);
+		}
+	}
+
 	@Test
 	public void testTimeout() throws Exception {
 		Assertions.assertThrows(ProcessTimeoutException.class,
@@ -306,6 +892,18 @@ public class JashIT {
 							.count());
 	}
 
+	@Test
+	public void testMaximalTimeout() throws Exception {
+		assertThat(Jash	.start("sh", "-c", "sleep 0.5; echo done")
+						.withTimeout(Duration.ofNanos(Long.MAX_VALUE))
+						.get())
+								.isEqualTo("done");
+		assertThat(Jash	.start("sh", "-c", "sleep 0.5; echo done")
+						.withIdleTimeout(ChronoUnit.FOREVER.getDuration())
+						.get())
+								.isEqualTo("done");
+	}
+
 	@Test
 	public void testTimeoutWithData() throws Exception {
 		Assertions.assertTimeout(Duration.of(1, ChronoUnit.SECONDS),
@@ -316,6 +914,58 @@ public class JashIT {
 									.count()));
 	}
 
+	@Test
+	public void testWithTimeoutKeepsParentTimeout() throws Exception {
+		Jash parent = Jash	.start("sh", "-c", "sleep 0.5; echo done")
+							.withTimeout(Duration.of(100, ChronoUnit.MILLIS));
+		assertThat(parent	.withTimeout(Duration.of(5, ChronoUnit.SECONDS))
+							.get())
+									.isEqualTo("done");
+		Assertions.assertThrows(ProcessTimeoutException.class, parent::get);
+	}
+
+	@Test
+	public void testUnusedDerivedTimeout() throws Exception {
+		Jash jash = Jash.start("sh", "-c", "sleep 0.5; echo done");
+		jash.withTimeout(Duration.of(100, ChronoUnit.MILLIS));
+		Assertions.assertThrows(ProcessTimeoutException.class, jash::get);
+	}
+
+	@Test
+	public void testIdleTimeout() throws Exception {
+		assertThat(Jash	.start("sh", "-c", "for i in 1 2 3 4 5 6; do echo $i; sleep 0.1; done")
+						.withIdleTimeout(Duration.of(300, ChronoUnit.MILLIS))
+						.stream()
+						.count())
+									.isEqualTo(6);
+		ProcessIdleTimeoutException exception = catchThrowableOfType(
+				() -> Jash	.start("sh", "-c", "echo hello; sleep 3600")
+							.withIdleTimeout(Duration.of(300, ChronoUnit.MILLIS))
+							.stream()
+							.count(),
+				ProcessIdleTimeoutException.class);
+		assertThat(exception.getCondition()).isEqualTo(ProcessIdleTimeoutException.Condition.NO_OUTPUT);
+	}
+
+	@Test
+	public void testStallTimeout() throws Exception {
+		ProcessIdleTimeoutException exception = catchThrowableOfType(
+				() -> Jash	.start("sh", "-c", "sleep 3600")
+							.withStallTimeout(Duration.of(300, ChronoUnit.MILLIS))
+							.get(),
+				ProcessIdleTimeoutException.class);
+		assertThat(exception.getCondition()).isEqualTo(ProcessIdleTimeoutException.Condition.NO_CPU_PROGRESS);
+	}
+
+	@Test
+	public void testTimeoutWithoutReading() throws Exception {
+		Jash jash = Jash.start("sh", "-c", "sleep 3600")
+						.withTimeout(Duration.of(100, ChronoUnit.MILLIS));
+		Thread.sleep(500);
+		assertThat(jash.isClosed()).isTrue();
+		Assertions.assertThrows(ProcessTimeoutException.class, jash::get);
+	}
+
 	@Test
 	@Disabled("Test disabled as it hits memory limits by producing constant stream of zero bytes")
 	public void testLongPipedExecutionWithTimeout() throws Exception {